@@ -148,53 +148,130 @@ void write_output_image(struct rgb_image *image, char *filename) {
 }
 
 /**
- * Helper function to compare bytes
+ * @brief Helper data structure to store a window of the input image and the histogram of its values
  */
-int compare_byte(const void *x, const void  *y) {
-    unsigned char *uc_x = (unsigned char *)x;
-    unsigned char *uc_y = (unsigned char *)y;
-    if (*uc_x < *uc_y) {
-        return -1;
-    } else if (*uc_x > *uc_y) {
-        return 1;
-    } else {
-        return 0;
+struct window {
+    int row_lbound;             // first row (inclusive)
+    int row_ubound;             // last row (inclusive)
+    int col_lbound;             // first column (inclusive)
+    int col_ubound;             // last column (inclusive)
+    unsigned int hist[256];     // number of occurrences of each value in the window
+};
+
+/**
+ * @brief Function to add (or remove) the values of a rectangle of the input image to (from) a window's histogram
+ * @param input_image: input image data structure
+ * @param channel: RGB channel
+ * @param window: the window
+ * @param row_lbound, row_ubound, col_lbound, col_ubound: the rectangle (inclusive bounds)
+ * @param delta: 1 to add, -1 to remove
+ */
+void update_histogram(struct rgb_image *input_image, int channel, struct window *window,
+                      int row_lbound, int row_ubound, int col_lbound, int col_ubound, int delta) {
+
+    for (int i = row_lbound; i <= row_ubound; i++) {
+        for (int j = col_lbound; j <= col_ubound; j++) {
+            window->hist[input_image->RGB[channel][(i) * input_image->width + j]] += delta;
+        }
     }
 }
 
-
 /**
- * @brief Function to compute the new (i.e., transformed) pixel value
+ * @brief Function to move a window to new bounds, by only adding/removing the rows and columns that
+ * enter/leave it
  * @param input_image: input image data structure
- * @param row: pixel row
- * @param col: pixel column
- * @param rgb: RGB channel
+ * @param channel: RGB channel
+ * @param window: the window
+ * @param row_lbound, row_ubound, col_lbound, col_ubound: the new bounds (inclusive)
  */
-unsigned char compute_pixel_value(struct rgb_image *input_image, int row, int col, int channel) {
-
-    double radius =  MAX(1.0,
-                         (5.0 * (col) / (double) input_image->width) +
-                         (20.0 * ( row) / (double) input_image->height));
-
-    int row_lbound = MAX(0, row - radius);
-    int row_ubound = MIN(input_image->height, row + radius);
-    int col_lbound = MAX(0, col - radius);
-    int col_ubound = MIN(input_image->width, col + radius);
-
-    int num_values = (row_ubound - row_lbound + 1) * (col_ubound - col_lbound + 1);
-    unsigned char *values = (unsigned char *)malloc(num_values * sizeof(unsigned char));
-    unsigned char *ptr = values;
-    for  (int i = row_lbound; i <= row_ubound; i++) {
-        for  (int j = col_lbound; j <= col_ubound; j++) {
-            *(ptr++) = input_image->RGB[channel][(i) * input_image->width + j];
+void move_window(struct rgb_image *input_image, int channel, struct window *window,
+                 int row_lbound, int row_ubound, int col_lbound, int col_ubound) {
+
+    // Move the rows (over the current columns)
+    for (int i = window->row_lbound; i <= window->row_ubound; i++) {
+        if (i < row_lbound || i > row_ubound) {
+            update_histogram(input_image, channel, window, i, i, window->col_lbound, window->col_ubound, -1);
         }
     }
-    qsort(values, num_values, sizeof(unsigned char), compare_byte);
-    double funky = MAX(0, (double)values[num_values-1] - (double)values[num_values/2] / 2.0 + (double)values[0]/(4.0));
+    for (int i = row_lbound; i <= row_ubound; i++) {
+        if (i < window->row_lbound || i > window->row_ubound) {
+            update_histogram(input_image, channel, window, i, i, window->col_lbound, window->col_ubound, 1);
+        }
+    }
+    window->row_lbound = row_lbound;
+    window->row_ubound = row_ubound;
+
+    // Move the columns (over the new rows)
+    for (int j = window->col_lbound; j <= window->col_ubound; j++) {
+        if (j < col_lbound || j > col_ubound) {
+            update_histogram(input_image, channel, window, row_lbound, row_ubound, j, j, -1);
+        }
+    }
+    for (int j = col_lbound; j <= col_ubound; j++) {
+        if (j < window->col_lbound || j > window->col_ubound) {
+            update_histogram(input_image, channel, window, row_lbound, row_ubound, j, j, 1);
+        }
+    }
+    window->col_lbound = col_lbound;
+    window->col_ubound = col_ubound;
+}
+
+/**
+ * @brief Function to compute the new (i.e., transformed) pixel value, the window having been
+ * moved to the pixel's window (so that no window values need to be copied or sorted)
+ * @param window: the pixel's window
+ */
+unsigned char compute_pixel_value(struct window *window) {
+
+    int num_values = (window->row_ubound - window->row_lbound + 1) *
+                     (window->col_ubound - window->col_lbound + 1);
+
+    int min = 0;
+    while (window->hist[min] == 0) {
+        min++;
+    }
+    int max = 255;
+    while (window->hist[max] == 0) {
+        max--;
+    }
+    int median = min;
+    for (int rank = num_values / 2 - (int) window->hist[min]; rank >= 0; rank -= (int) window->hist[median]) {
+        median++;
+    }
+
+    double funky = MAX(0, (double)max - (double)median / 2.0 + (double)min/(4.0));
     return (unsigned char)funky;
 
 }
 
+/**
+ * @brief Function to compute the new (i.e., transformed) values of a row for one channel, by sliding
+ * the window along the row
+ * @param input_image: input image data structure
+ * @param output_image: output image data structure
+ * @param row: pixel row
+ * @param rgb: RGB channel
+ */
+void compute_row_values(struct rgb_image *input_image, struct rgb_image *output_image, int row, int channel) {
+
+    // Start with an empty window
+    struct window window = {0, -1, 0, -1, {0}};
+
+    for (int col = 0; col < input_image->width; col++) {
+        double radius =  MAX(1.0,
+                             (5.0 * (col) / (double) input_image->width) +
+                             (20.0 * ( row) / (double) input_image->height));
+
+        int row_lbound = MAX(0, row - radius);
+        int row_ubound = MIN(input_image->height, row + radius);
+        int col_lbound = MAX(0, col - radius);
+        int col_ubound = MIN(input_image->width, col + radius);
+
+        move_window(input_image, channel, &window, row_lbound, row_ubound, col_lbound, col_ubound);
+        output_image->RGB[channel][row * input_image->width + col] = compute_pixel_value(&window);
+    }
+}
+
 
 /**
  * @brief Function that applies a filter to the input image for generating the output image pixels
@@ -202,21 +279,18 @@ unsigned char compute_pixel_value(struct rgb_image *input_image, int row, int co
  * @param output_image: the output image data structure
  */
 void apply_filter(struct rgb_image *input_image, struct rgb_image *output_image, int numthreads) {
-    int row, col, rgb;
+    int row, rgb;
 
     omp_set_num_threads(numthreads);
-    #pragma omp parallel private(row, col, rgb)
+    #pragma omp parallel private(row, rgb)
     {
     struct timeval time_start;
     struct timeval time_end;
     gettimeofday(&time_start, NULL);
     #pragma omp for nowait
     for (row = 0; row < input_image->height; row++) {
-        for (col = 0; col < input_image->width; col++) {
-            for (rgb = 0; rgb < 3; rgb++) {
-                output_image->RGB[rgb][row * input_image->width + col] =
-                        compute_pixel_value(input_image, row, col, rgb);
-            }
+        for (rgb = 0; rgb < 3; rgb++) {
+            compute_row_values(input_image, output_image, row, rgb);
         }
     }
     gettimeofday(&time_end, NULL);
@@ -0,0 +1,120 @@
+package ics432.imgapp;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A JMH benchmark of the filters created by WorkUnit.createFilter, applied to
+ * in-memory images (i.e., without any file I/O or JavaFX decoding). The "pixels"
+ * counter reports the throughput in megapixels/s, and the allocation rate is
+ * reported by the GC profiler (enabled by default in the "jmh" Maven profile).
+ *
+ * The full parameter space is large, so it is usually restricted, e.g.:
+ * mvn -Pjmh compile exec:exec -Djmh.args="FilterBenchmark -p filterName=Median,DPMedian -p megapixels=12 -prof gc"
+ * SIMD kernels also need: -jvmArgsAppend --add-modules=jdk.incubator.vector -p simd=true
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FilterBenchmark {
+
+    @Param({"Invert", "Solarize", "Oil4", "Median", "DPMedian", "Median5", "Median9", "Median15",
+            "DPEdge", "DPFunk1", "DPFunk2"})
+    public String filterName;
+
+    @Param({"1", "12", "50"})
+    public int megapixels;
+
+    @Param({"INT_RGB", "INT_ARGB", "3BYTE_BGR"})
+    public String imageType;
+
+    @Param({"1", "4"})
+    public int dpThreads;
+
+    @Param({"false"})
+    public boolean simd;
+
+    private BufferedImage input;
+    private BufferedImageOp filter;
+
+    /**
+     * The number of megapixels processed, reported as a rate (megapixels/s)
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Pixels {
+        public double megapixels;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.megapixels = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // A 4:3 image with random pixels
+        int width = (int) Math.round(Math.sqrt(this.megapixels * 1e6 * 4 / 3));
+        int height = (int) Math.round(this.megapixels * 1e6 / width);
+        this.input = new BufferedImage(width, height, getImageType(this.imageType));
+        Random random = new Random(432);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                row[x] = random.nextInt() | 0xFF000000;
+            }
+            this.input.setRGB(0, y, width, 1, row, 0, width);
+        }
+
+        DPThreadPool.setNumThreads(this.dpThreads);
+
+        // Filters are created as in the application (with the in-process versions of the C filters)
+        Job job = new Job(this.filterName, Paths.get("."), List.of(), null, null, null, true, this.simd, false);
+        WorkUnit unit = new WorkUnit(Paths.get(this.filterName + ".jpg"), Paths.get("."), this.filterName, null, job);
+        this.filter = unit.createFilter(this.filterName);
+    }
+
+    @Benchmark
+    public BufferedImage filter(Pixels pixels) {
+        BufferedImage output = this.filter.filter(this.input, null);
+        pixels.megapixels += this.input.getWidth() * (double) this.input.getHeight() / 1e6;
+        return output;
+    }
+
+    /**
+     * Helper method to get a BufferedImage type from its name
+     */
+    private static int getImageType(String name) {
+        switch (name) {
+            case "INT_RGB":
+                return BufferedImage.TYPE_INT_RGB;
+            case "INT_ARGB":
+                return BufferedImage.TYPE_INT_ARGB;
+            case "3BYTE_BGR":
+                return BufferedImage.TYPE_3BYTE_BGR;
+            default:
+                throw new IllegalArgumentException("Unknown image type " + name);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package ics432.imgapp;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * A WorkUnit that does no image work at all (reading, processing and writing it
+ * are no-ops), so that benchmarks only measure how work units are handed off
+ * between threads. It is never cleaned up, so it can be put in queues over and over.
+ */
+class NoOpWorkUnit extends WorkUnit {
+
+    /**
+     * Constructor
+     *
+     * @param inputFile The (fake) input file path, which is also the "output" file path
+     * @param job       The job the work unit belongs to (or null)
+     */
+    NoOpWorkUnit(Path inputFile, Job job) {
+        super(inputFile, Paths.get("."), "NoOp", null, job);
+    }
+
+    @Override
+    void readImage() {
+    }
+
+    @Override
+    void processImage() {
+    }
+
+    @Override
+    public Path writeImage() {
+        return this.inputFile;
+    }
+
+    @Override
+    public void cleanUpWorkUnit() {
+    }
+}
@@ -0,0 +1,114 @@
+package ics432.imgapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A JMH benchmark of the full reader/processor/writer pipeline, wired as in MainWindow
+ * (one ReaderThread, some ProcessorThreads and one WriterThread, connected by three
+ * ProducerConsumer buffers), with no-op work units. Each benchmark invocation puts a
+ * batch of work units into the read buffer (as a Job does) and waits until they have
+ * all been written, so the throughput (in work units/s) only reflects the hand-off
+ * overhead of the pipeline, and not any image work.
+ *
+ * For instance:
+ * mvn -Pjmh compile exec:exec -Djmh.args="PipelineBenchmark -p processors=1,4 -p queue=ring"
+ *
+ * The pipeline threads loop forever (as in the application), so they are daemon
+ * threads that only go away with the forked benchmark JVM.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PipelineBenchmark {
+
+    // The number of work units going through the pipeline per benchmark invocation
+    static final int BATCH = 10000;
+
+    @Param({"1", "2", "4"})
+    public int processors;
+
+    @Param({"blocking", "ring"})
+    public String queue;
+
+    private ProducerConsumer readBuffer;
+    private CountingJob job;
+    private WorkUnit[] units;
+
+    /**
+     * A job without a GUI, which only counts the work units written by the writer thread
+     */
+    private static class CountingJob extends Job {
+        private volatile CountDownLatch written;
+
+        CountingJob() {
+            super("NoOp", Paths.get("."), List.of(), null, null, null, true, false, false);
+        }
+
+        @Override
+        void workUnitWritten(Path inputFile, Path outputFile) {
+            this.written.countDown();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.readBuffer = ProducerConsumer.create(this.queue);
+        ProducerConsumer processBuffer = ProducerConsumer.create(this.queue);
+        ProducerConsumer writeBuffer = ProducerConsumer.create(this.queue);
+
+        startDaemon(new ReaderThread(this.readBuffer, processBuffer));
+        for (int i = 0; i < this.processors; i++) {
+            startDaemon(new ProcessorThread(processBuffer, writeBuffer));
+        }
+        startDaemon(new WriterThread(writeBuffer));
+
+        this.job = new CountingJob();
+        this.units = new WorkUnit[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            this.units[i] = new NoOpWorkUnit(Paths.get("NoOp" + i + ".jpg"), this.job);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void handOff() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(BATCH);
+        this.job.written = latch;
+
+        for (WorkUnit unit : this.units) {
+            this.readBuffer.put(unit);
+        }
+
+        latch.await();
+    }
+
+    /**
+     * Helper method to start a pipeline thread as a daemon thread
+     */
+    private static void startDaemon(Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,137 @@
+package ics432.imgapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A JMH benchmark of a ProducerConsumer buffer (i.e., of one stage queue of the
+ * reader/processor/writer pipeline) with several producer and consumer threads.
+ * Each benchmark invocation hands a batch of (no-op) work units from the producer
+ * threads to the consumer threads, and the throughput is reported in work units/s.
+ * Work units are put and taken one at a time (batch = 1), or in batches with
+ * putAll/drainTo.
+ *
+ * For instance:
+ * mvn -Pjmh compile exec:exec -Djmh.args="ProducerConsumerBenchmark -p producers=1 -p consumers=1,4 -p batch=1"
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ProducerConsumerBenchmark {
+
+    // The number of work units handed off per benchmark invocation
+    static final int BATCH = 10000;
+
+    @Param({"1", "2", "4"})
+    public int producers;
+
+    @Param({"1", "2", "4"})
+    public int consumers;
+
+    @Param({"blocking", "ring"})
+    public String queue;
+
+    @Param({"1", "16"})
+    public int batch;
+
+    private ProducerConsumer buffer;
+    private ExecutorService producerPool;
+    private Thread[] consumerThreads;
+    private WorkUnit unit;
+    private List<WorkUnit> units;
+
+    // Counted down by the consumer threads for each work unit of the current batch
+    private volatile CountDownLatch consumed;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.buffer = ProducerConsumer.create(this.queue);
+        this.producerPool = Executors.newFixedThreadPool(this.producers);
+        this.unit = new NoOpWorkUnit(Paths.get("NoOp.jpg"), null);
+        this.units = Collections.nCopies(this.batch, this.unit);
+
+        this.consumerThreads = new Thread[this.consumers];
+        for (int i = 0; i < this.consumers; i++) {
+            this.consumerThreads[i] = new Thread(() -> {
+                List<WorkUnit> taken = new ArrayList<>();
+                while (true) {
+                    if (this.batch == 1) {
+                        if (this.buffer.get() == null) {
+                            return;
+                        }
+                        this.consumed.countDown();
+                    } else {
+                        taken.clear();
+                        int count = this.buffer.drainTo(taken, this.batch);
+                        if (count == 0) {
+                            return;
+                        }
+                        for (int j = 0; j < count; j++) {
+                            this.consumed.countDown();
+                        }
+                    }
+                }
+            });
+            this.consumerThreads[i].setDaemon(true);
+            this.consumerThreads[i].start();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        this.buffer.shutdown();
+        for (Thread thread : this.consumerThreads) {
+            thread.join();
+        }
+        this.producerPool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void handOff() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(BATCH);
+        this.consumed = latch;
+
+        // Split the batch among the producer threads
+        for (int p = 0; p < this.producers; p++) {
+            int count = BATCH / this.producers + (p < BATCH % this.producers ? 1 : 0);
+            this.producerPool.execute(() -> {
+                if (this.batch == 1) {
+                    for (int i = 0; i < count; i++) {
+                        this.buffer.put(this.unit);
+                    }
+                } else {
+                    for (int i = 0; i < count; i += this.batch) {
+                        this.buffer.putAll(this.units.subList(0, Math.min(this.batch, count - i)));
+                    }
+                }
+            });
+        }
+
+        latch.await();
+    }
+}
@@ -0,0 +1,180 @@
+package ics432.imgapp;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD versions of filter inner loops, written with the (incubating) Java Vector API.
+ * Packed pixels are processed as many lanes at a time as the platform's preferred
+ * vector width allows (e.g., 8 with AVX2, 16 with AVX-512), with each channel
+ * unpacked into its own vector (or, for the median, with each channel sample in
+ * its own signed byte lane).
+ */
+class VectorPixelKernels implements PixelKernels {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+
+    @Override
+    public int invert(int[] src, int[] dst, int from, int to) {
+        int i = from;
+        for (; i + INTS.length() <= to; i += INTS.length()) {
+            IntVector.fromArray(INTS, src, i).lanewise(VectorOperators.XOR, 0x00FFFFFF).intoArray(dst, i);
+        }
+        return i;
+    }
+
+    @Override
+    public int solarize(int[] src, int[] dst, int from, int to) {
+        int i = from;
+        for (; i + INTS.length() <= to; i += INTS.length()) {
+            IntVector p = IntVector.fromArray(INTS, src, i);
+            IntVector r = solarize(unsignedChannel(p, 16));
+            IntVector g = solarize(unsignedChannel(p, 8));
+            IntVector b = solarize(unsignedChannel(p, 0));
+            p.and(0xFF000000).or(pack(r, g, b)).intoArray(dst, i);
+        }
+        return i;
+    }
+
+    @Override
+    public int median3x3(int[] src, int srcRow, int[] dst, int dstRow, int width) {
+        int x = 1;
+        for (; x + INTS.length() <= width - 1; x += INTS.length()) {
+            int mid = srcRow + x;
+            int top = mid - width;
+            int bot = mid + width;
+            IntVector p0 = IntVector.fromArray(INTS, src, top - 1);
+            IntVector p1 = IntVector.fromArray(INTS, src, top);
+            IntVector p2 = IntVector.fromArray(INTS, src, top + 1);
+            IntVector p3 = IntVector.fromArray(INTS, src, mid - 1);
+            IntVector p4 = IntVector.fromArray(INTS, src, mid);
+            IntVector p5 = IntVector.fromArray(INTS, src, mid + 1);
+            IntVector p6 = IntVector.fromArray(INTS, src, bot - 1);
+            IntVector p7 = IntVector.fromArray(INTS, src, bot);
+            IntVector p8 = IntVector.fromArray(INTS, src, bot + 1);
+
+            // Viewed as bytes, each lane of an int vector is one signed channel sample
+            ByteVector median = med9(p0.reinterpretAsBytes(), p1.reinterpretAsBytes(), p2.reinterpretAsBytes(),
+                    p3.reinterpretAsBytes(), p4.reinterpretAsBytes(), p5.reinterpretAsBytes(),
+                    p6.reinterpretAsBytes(), p7.reinterpretAsBytes(), p8.reinterpretAsBytes());
+            median.reinterpretAsInts().and(0x00FFFFFF).intoArray(dst, dstRow + x);
+        }
+        return x;
+    }
+
+    @Override
+    public int median3x3(byte[] src, byte[] dst, int row, int stride) {
+        // Java bytes are signed, so byte lanes directly give MedianKernel's signed order
+        int i = row + 3;
+        for (; i + BYTES.length() <= row + stride - 3; i += BYTES.length()) {
+            int t = i - stride;
+            int b = i + stride;
+            ByteVector median = med9(
+                    ByteVector.fromArray(BYTES, src, t - 3), ByteVector.fromArray(BYTES, src, t),
+                    ByteVector.fromArray(BYTES, src, t + 3), ByteVector.fromArray(BYTES, src, i - 3),
+                    ByteVector.fromArray(BYTES, src, i), ByteVector.fromArray(BYTES, src, i + 3),
+                    ByteVector.fromArray(BYTES, src, b - 3), ByteVector.fromArray(BYTES, src, b),
+                    ByteVector.fromArray(BYTES, src, b + 3));
+            median.intoArray(dst, i);
+        }
+        return i;
+    }
+
+    @Override
+    public int sobel(int[] src, int[] dst, int row, int width) {
+        int x = 1;
+        for (; x + INTS.length() <= width - 1; x += INTS.length()) {
+            int i = row + x;
+            IntVector nwp = IntVector.fromArray(INTS, src, i - width - 1);
+            IntVector np = IntVector.fromArray(INTS, src, i - width);
+            IntVector nep = IntVector.fromArray(INTS, src, i - width + 1);
+            IntVector wp = IntVector.fromArray(INTS, src, i - 1);
+            IntVector ep = IntVector.fromArray(INTS, src, i + 1);
+            IntVector swp = IntVector.fromArray(INTS, src, i + width - 1);
+            IntVector sp = IntVector.fromArray(INTS, src, i + width);
+            IntVector sep = IntVector.fromArray(INTS, src, i + width + 1);
+
+            IntVector pixel = IntVector.fromArray(INTS, src, i).and(0xFF000000);
+            for (int shift = 16; shift >= 0; shift -= 8) {
+                IntVector nw = unsignedChannel(nwp, shift), n = unsignedChannel(np, shift);
+                IntVector ne = unsignedChannel(nep, shift), w = unsignedChannel(wp, shift);
+                IntVector e = unsignedChannel(ep, shift), sw = unsignedChannel(swp, shift);
+                IntVector s = unsignedChannel(sp, shift), se = unsignedChannel(sep, shift);
+
+                IntVector s1 = ne.add(e.add(e)).add(se).sub(nw.add(w.add(w)).add(sw));
+                IntVector s2 = sw.add(s.add(s)).add(se).sub(nw.add(n.add(n)).add(ne));
+
+                // The sum of squares is below 2^22, so it converts to float exactly, and truncating
+                // its float square root gives the same integer as truncating its double square root
+                FloatVector mag = ((FloatVector) s1.mul(s1).add(s2.mul(s2)).convert(VectorOperators.I2F, 0))
+                        .lanewise(VectorOperators.SQRT).max(70.0f);
+                IntVector value = truncate(mag).and(0xFF);
+                pixel = pixel.or(value.lanewise(VectorOperators.LSHL, shift));
+            }
+            pixel.intoArray(dst, i);
+        }
+        return x;
+    }
+
+    /**
+     * Helper method to compute solarized channel values exactly as SolarizeFilter's table does.
+     * Its float computations work out to 2c - 255 above 127, 255 - 2c below 64, and 254 - 2c
+     * in between (for all 256 values), which needs no float conversion
+     */
+    private static IntVector solarize(IntVector channel) {
+        IntVector twice = channel.add(channel);
+        // (c + 64) >>> 7 is 1 for 64 <= c <= 127 and 0 below
+        IntVector low = twice.add(channel.add(64).lanewise(VectorOperators.LSHR, 7)).neg().add(255);
+        return low.blend(twice.sub(255), channel.compare(VectorOperators.GT, 127));
+    }
+
+    /**
+     * Helper method to truncate floats in [1, 2^23) to ints, from their bits (the JIT does
+     * not compile float-to-int vector conversions to SIMD instructions on all platforms)
+     */
+    private static IntVector truncate(FloatVector v) {
+        IntVector bits = v.viewAsIntegralLanes();
+        IntVector mantissa = bits.and(0x007FFFFF).or(0x00800000);
+        return mantissa.lanewise(VectorOperators.LSHR, bits.lanewise(VectorOperators.LSHR, 23).neg().add(150));
+    }
+
+    private static IntVector unsignedChannel(IntVector p, int shift) {
+        return p.lanewise(VectorOperators.LSHR, shift).and(0xFF);
+    }
+
+    private static IntVector pack(IntVector r, IntVector g, IntVector b) {
+        return r.lanewise(VectorOperators.LSHL, 16).or(g.lanewise(VectorOperators.LSHL, 8)).or(b);
+    }
+
+    /**
+     * Helper method to compute the lane-wise median of 9 vectors with the same
+     * sorting network as MedianKernel
+     */
+    private static ByteVector med9(ByteVector p0, ByteVector p1, ByteVector p2, ByteVector p3, ByteVector p4,
+                                    ByteVector p5, ByteVector p6, ByteVector p7, ByteVector p8) {
+        ByteVector t;
+        t = p1.min(p2); p2 = p1.max(p2); p1 = t;
+        t = p4.min(p5); p5 = p4.max(p5); p4 = t;
+        t = p7.min(p8); p8 = p7.max(p8); p7 = t;
+        t = p0.min(p1); p1 = p0.max(p1); p0 = t;
+        t = p3.min(p4); p4 = p3.max(p4); p3 = t;
+        t = p6.min(p7); p7 = p6.max(p7); p6 = t;
+        t = p1.min(p2); p2 = p1.max(p2); p1 = t;
+        t = p4.min(p5); p5 = p4.max(p5); p4 = t;
+        t = p7.min(p8); p8 = p7.max(p8); p7 = t;
+        p3 = p0.max(p3);
+        p5 = p5.min(p8);
+        t = p4.min(p7); p7 = p4.max(p7); p4 = t;
+        p6 = p3.max(p6);
+        p4 = p1.max(p4);
+        p2 = p2.min(p5);
+        p4 = p4.min(p7);
+        t = p4.min(p2); p2 = p4.max(p2); p4 = t;
+        p4 = p6.max(p4);
+        return p4.min(p2);
+    }
+}
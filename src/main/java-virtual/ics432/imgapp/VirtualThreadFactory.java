@@ -0,0 +1,17 @@
+package ics432.imgapp;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A thread factory that creates virtual threads (JDK 21 or later). It is only
+ * compiled by the "virtual" Maven profile, and is loaded by VirtualStages.
+ */
+class VirtualThreadFactory implements ThreadFactory {
+
+    private final ThreadFactory factory = Thread.ofVirtual().name("imgapp-io-", 0).factory();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        return this.factory.newThread(runnable);
+    }
+}
@@ -4,13 +4,14 @@ import javafx.event.EventDispatchChain;
 import javafx.event.EventTarget;
 import javafx.scene.text.Text;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class AppStats {
     private int executeJobs;
     private int successJobs;
 
+    // The texts shown by the StatisticsWindow, created on demand (creating them starts the JavaFX toolkit)
     private Text successText;
     private Text executeText;
 
@@ -20,34 +21,56 @@ public class AppStats {
     public AppStats() {
         executeJobs = 0;
         successJobs = 0;
-        successText = new Text(Integer.toString(successJobs));
-        executeText = new Text(Integer.toString(executeJobs));
-        filterStatMap = new HashMap<>();
+        filterStatMap = new ConcurrentHashMap<>();
     }
 
     public void addFilter(String key) {
         filterStatMap.put(key, new FilterStat(key));
     }
+
+    /**
+     * Get the statistics of a filter (or of a filter chain), created on demand
+     *
+     * @param key The filter's name
+     */
+    public FilterStat getFilterStat(String key) {
+        return filterStatMap.computeIfAbsent(key, FilterStat::new);
+    }
+
     public Map<String,FilterStat> getMap(){
         return filterStatMap;
     }
 
     private void setSuccessText() {
-        successText.setText(Integer.toString(successJobs));
+        if (successText != null) {
+            successText.setText(Integer.toString(successJobs));
+        }
     }
 
     private void setExecuteText() {
-        executeText.setText(Integer.toString(executeJobs));
+        if (executeText != null) {
+            executeText.setText(Integer.toString(executeJobs));
+        }
     }
 
-    public Text getSuccessText() {
+    public synchronized Text getSuccessText() {
+        if (successText == null) {
+            successText = new Text(Integer.toString(successJobs));
+        }
         return successText;
     }
 
-    public Text getExecuteText() {
+    public synchronized Text getExecuteText() {
+        if (executeText == null) {
+            executeText = new Text(Integer.toString(executeJobs));
+        }
         return executeText;
     }
 
+    public synchronized int getSuccessJobs() {
+        return successJobs;
+    }
+
     public synchronized void updateExecuteJobs() {
         executeJobs++;
         setExecuteText();
@@ -0,0 +1,483 @@
+package ics432.imgapp;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The entry point of the headless (command-line) batch mode, which runs a single job
+ * through the same reader/processor/writer pipeline as the GUI, without starting the
+ * JavaFX toolkit (images are decoded with ImageIO), and prints its throughput. E.g.:
+ *
+ * mvn javafx:run@batch -Djavafx.args="-f Median|Invert -o /tmp/out -p 4 /data/photos /data/more/*.jpg"
+ *
+ * With --watch, it runs as a daemon instead, which processes the JPEG files that appear
+ * in its input directories (see FolderWatcher) until it is killed.
+ */
+public class BatchMain {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: BatchMain [options] <input directory, file or glob>...",
+            "  -f, --filter <name>      The filter, or chain of filters (e.g., Median|Invert) [Invert]",
+            "  -o, --output <dir>       The directory in which to write output images (required)",
+            "  -r, --readers <n>        The number of reader threads [1]",
+            "  -p, --processors <n>     The number of processor threads [#cores]",
+            "  -w, --writers <n>        The number of writer threads [1]",
+            "  -d, --dp-threads <n>     The number of threads of data-parallel filters [1]",
+            "  -a, --auto               Adjust the number of processor threads automatically",
+            "  -q, --quality <q>        The JPEG quality of output images, between 0 and 1 [0.75]",
+            "  -m, --memory <percent>   The memory budget, as a percentage of the maximum heap size [50]",
+            "      --in-process         Replace the external (C) filters with their Java ports",
+            "      --simd               Use the SIMD kernels of filters (when available)",
+            "      --streaming          Stream images through the filter (when it can be)",
+            "      --cache-mb <n>       The maximum size of the output cache, in MB (0 to disable it) [1024]",
+            "      --watch              Watch the input directories, and process new files as they appear",
+            "      --report <seconds>   The period at which the throughput is reported, when watching [10]",
+            "      --metrics-file <f>   Write the latency metrics (in the Prometheus text format) to a file, periodically",
+            "      --metrics-port <n>   Serve the latency metrics on http://localhost:<n>/metrics");
+
+    // The number of progress lines printed during a job
+    private static final int PROGRESS_STEPS = 20;
+
+    private String filterName = "Invert";
+    private Path targetDir;
+    private final List<String> inputs = new ArrayList<>();
+    private int numReaders = 1;
+    private int numProcessors = Runtime.getRuntime().availableProcessors();
+    private int numWriters = 1;
+    private int numDPThreads = 1;
+    private boolean autoScaling = false;
+    private float quality = JpegEncoder.getQuality();
+    private int memoryPercent = 50;
+    private boolean inProcess = false;
+    private boolean simd = false;
+    private boolean streaming = false;
+    private boolean watch = false;
+    private int reportSeconds = 10;
+
+    private ProducerConsumer readBuffer;
+    private ProducerConsumer processBuffer;
+    private ProducerConsumer writeBuffer;
+    private ProcessorPool processorPool;
+
+    /**
+     * main() method
+     *
+     * @param args The command-line arguments
+     */
+    public static void main(String[] args) {
+        // Each input file is only decoded once in batch mode, so decoded images needn't be kept
+        // (unless asked for with the "imgapp.decodedCache.maxMB" property)
+        if (System.getProperty("imgapp.decodedCache.maxMB") == null) {
+            DecodedImageCache.setMaxBytes(0);
+        }
+
+        BatchMain batch = new BatchMain();
+        try {
+            batch.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        LatencyMetrics.startExportFromProperties();
+
+        if (batch.watch) {
+            System.exit(batch.watch() ? 0 : 1);
+        }
+
+        List<Path> inputFiles;
+        try {
+            inputFiles = batch.listInputFiles();
+        } catch (IOException e) {
+            System.err.println("Error while listing input files (" + e.getMessage() + ")");
+            System.exit(2);
+            return;
+        }
+        if (inputFiles.isEmpty()) {
+            System.err.println("No input image files");
+            System.exit(2);
+        }
+
+        System.exit(batch.run(inputFiles) ? 0 : 1);
+    }
+
+    /**
+     * Helper method to parse the command-line arguments
+     *
+     * @param args The command-line arguments
+     */
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "-f":
+                case "--filter":
+                    this.filterName = getValue(args, ++i, arg);
+                    break;
+                case "-o":
+                case "--output":
+                    this.targetDir = Paths.get(getValue(args, ++i, arg));
+                    break;
+                case "-r":
+                case "--readers":
+                    this.numReaders = getIntValue(args, ++i, arg);
+                    break;
+                case "-p":
+                case "--processors":
+                    this.numProcessors = getIntValue(args, ++i, arg);
+                    break;
+                case "-w":
+                case "--writers":
+                    this.numWriters = getIntValue(args, ++i, arg);
+                    break;
+                case "-d":
+                case "--dp-threads":
+                    this.numDPThreads = getIntValue(args, ++i, arg);
+                    break;
+                case "-a":
+                case "--auto":
+                    this.autoScaling = true;
+                    break;
+                case "-q":
+                case "--quality":
+                    try {
+                        this.quality = Float.parseFloat(getValue(args, ++i, arg));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid value for " + arg);
+                    }
+                    if (this.quality <= 0 || this.quality > 1) {
+                        throw new IllegalArgumentException("The quality must be between 0 and 1");
+                    }
+                    break;
+                case "-m":
+                case "--memory":
+                    this.memoryPercent = getIntValue(args, ++i, arg);
+                    break;
+                case "--in-process":
+                    this.inProcess = true;
+                    break;
+                case "--simd":
+                    this.simd = true;
+                    break;
+                case "--streaming":
+                    this.streaming = true;
+                    break;
+                case "--cache-mb":
+                    try {
+                        OutputCache.setMaxBytes(Long.parseLong(getValue(args, ++i, arg)) * 1024 * 1024);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid value for " + arg);
+                    }
+                    break;
+                case "--watch":
+                    this.watch = true;
+                    break;
+                case "--report":
+                    this.reportSeconds = getIntValue(args, ++i, arg);
+                    break;
+                case "--metrics-file":
+                    System.setProperty("imgapp.metrics.file", getValue(args, ++i, arg));
+                    break;
+                case "--metrics-port":
+                    System.setProperty("imgapp.metrics.port", Integer.toString(getIntValue(args, ++i, arg)));
+                    break;
+                default:
+                    if (arg.startsWith("-")) {
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                    }
+                    this.inputs.add(arg);
+            }
+        }
+
+        if (this.targetDir == null) {
+            throw new IllegalArgumentException("No output directory");
+        }
+        if (this.inputs.isEmpty()) {
+            throw new IllegalArgumentException("No input");
+        }
+        List<String> names = FilterChain.split(this.filterName);
+        for (String name : names) {
+            if (!WorkUnit.FILTER_NAMES.contains(name)) {
+                throw new IllegalArgumentException("Unknown image transform \"" + name + "\"");
+            }
+        }
+        this.filterName = String.join(FilterChain.SEPARATOR, names);
+    }
+
+    /**
+     * Helper method to get the value of an option
+     */
+    private static String getValue(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[i];
+    }
+
+    /**
+     * Helper method to get the (positive) integer value of an option
+     */
+    private static int getIntValue(String[] args, int i, String option) {
+        try {
+            int value = Integer.parseInt(getValue(args, i, option));
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException ignore) {
+        }
+        throw new IllegalArgumentException("Invalid value for " + option);
+    }
+
+    /**
+     * Helper method to list the input image files: the JPEG files in input directories,
+     * input files, and the files that match input globs (e.g., "photos/**.jpg")
+     *
+     * @return the input files, without duplicates
+     */
+    private List<Path> listInputFiles() throws IOException {
+        Set<Path> files = new LinkedHashSet<>();
+        for (String input : this.inputs) {
+            int glob = indexOfGlob(input);
+            if (glob < 0) {
+                Path path = Paths.get(input);
+                if (Files.isDirectory(path)) {
+                    try (Stream<Path> entries = Files.list(path)) {
+                        files.addAll(entries.filter(BatchMain::isJpeg).sorted().collect(Collectors.toList()));
+                    }
+                } else if (Files.isRegularFile(path)) {
+                    files.add(path);
+                } else {
+                    throw new IOException("No such file or directory: " + input);
+                }
+            } else {
+                // Walk the directory above the first glob character, and match against the whole glob
+                int separator = input.lastIndexOf('/', glob);
+                Path base = Paths.get(separator < 0 ? "" : input.substring(0, separator + 1));
+                PathMatcher matcher = base.getFileSystem().getPathMatcher("glob:" + input);
+                try (Stream<Path> entries = Files.walk(base)) {
+                    files.addAll(entries
+                            .filter(p -> matcher.matches(p) && Files.isRegularFile(p))
+                            .sorted().collect(Collectors.toList()));
+                }
+            }
+        }
+
+        List<Path> inputFiles = new ArrayList<>();
+        for (Path file : files) {
+            inputFiles.add(file.toAbsolutePath());
+        }
+        return inputFiles;
+    }
+
+    /**
+     * Helper method to find the first glob character of an input
+     */
+    private static int indexOfGlob(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            if ("*?[{".indexOf(input.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Helper method to check whether a file is a JPEG file (based on its name)
+     */
+    private static boolean isJpeg(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        return Files.isRegularFile(file) && (name.endsWith(".jpg") || name.endsWith(".jpeg"));
+    }
+
+    /**
+     * Helper method to run the job
+     *
+     * @param inputFiles The input image files
+     *
+     * @return true if all images were processed successfully
+     */
+    private boolean run(List<Path> inputFiles) {
+        JobScheduler scheduler = startPipeline();
+        if (scheduler == null) {
+            return false;
+        }
+
+        ConsoleListener listener = new ConsoleListener(inputFiles.size());
+        Job job = new Job(this.filterName, this.targetDir, inputFiles, listener, new AppStats(), scheduler,
+                this.inProcess, this.simd, this.streaming);
+        job.start();
+        try {
+            job.join();
+        } catch (InterruptedException e) {
+            return false;
+        }
+
+        stopPipeline();
+        return listener.numFailed == 0;
+    }
+
+    /**
+     * Helper method to watch the input directories, until the application is killed
+     *
+     * @return false if the directories could not be watched
+     */
+    private boolean watch() {
+        List<Path> inputDirs = new ArrayList<>();
+        for (String input : this.inputs) {
+            Path dir = Paths.get(input);
+            if (!Files.isDirectory(dir)) {
+                System.err.println("Not a directory: " + input);
+                return false;
+            }
+            inputDirs.add(dir);
+        }
+
+        JobScheduler scheduler = startPipeline();
+        if (scheduler == null) {
+            return false;
+        }
+
+        FolderWatcher watcher = new FolderWatcher(inputDirs, this.targetDir, this.filterName, new AppStats(),
+                scheduler, this.inProcess, this.simd, this.streaming, this.reportSeconds * 1000L);
+        try {
+            watcher.run();
+        } catch (IOException e) {
+            System.err.println("Error while watching input directories (" + e.getMessage() + ")");
+            return false;
+        } finally {
+            stopPipeline();
+        }
+        return true;
+    }
+
+    /**
+     * Helper method to start the pipeline, set up as in MainWindow
+     *
+     * @return the scheduler that sends work units to the pipeline (or null if the output directory is missing)
+     */
+    private JobScheduler startPipeline() {
+        WorkUnit.setJavaFXDecoding(false);
+        JpegEncoder.setQuality(this.quality);
+        MemoryBudget.setBudgetPercent(this.memoryPercent);
+        DPThreadPool.setNumThreads(this.numDPThreads);
+
+        try {
+            Files.createDirectories(this.targetDir);
+        } catch (IOException e) {
+            System.err.println("Cannot create output directory " + this.targetDir + " (" + e.getMessage() + ")");
+            return null;
+        }
+
+        this.readBuffer = ProducerConsumer.create();
+        this.processBuffer = ProducerConsumer.create();
+        this.writeBuffer = ProducerConsumer.create();
+        this.readBuffer.setName("read");
+        this.processBuffer.setName("process");
+        this.writeBuffer.setName("write");
+
+        boolean virtualThreads = VirtualStages.isEnabled();
+        if (virtualThreads) {
+            System.err.println("Reading and writing images on virtual threads");
+            new VirtualStages(readBuffer, processBuffer, writeBuffer).start();
+        } else {
+            for (int i = 0; i < this.numReaders; i++) {
+                startDaemon(new ReaderThread(readBuffer, processBuffer), "reader-" + i);
+            }
+            for (int i = 0; i < this.numWriters; i++) {
+                startDaemon(new WriterThread(writeBuffer), "writer-" + i);
+            }
+            JpegEncoder.setMaxPooledEncoders(this.numWriters);
+        }
+
+        this.processorPool = new ProcessorPool(processBuffer, writeBuffer,
+                Math.max(this.numProcessors, Runtime.getRuntime().availableProcessors()));
+        this.processorPool.setNumThreads(this.numProcessors);
+        this.processorPool.setAutoScaling(this.autoScaling);
+
+        FilePrefetcher.setMaxOutstandingReads(virtualThreads ? MainWindow.VIRTUAL_PREFETCHED_FILES
+                : this.numReaders * MainWindow.PREFETCHED_FILES_PER_READER);
+        return new JobScheduler(readBuffer,
+                virtualThreads ? MainWindow.VIRTUAL_MAX_IN_FLIGHT : JobScheduler.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Helper method to let the pipeline threads terminate
+     */
+    private void stopPipeline() {
+        this.processorPool.setAutoScaling(false);
+        this.readBuffer.shutdown();
+        this.processBuffer.shutdown();
+        this.writeBuffer.shutdown();
+    }
+
+    /**
+     * Helper method to start a daemon thread
+     */
+    private static void startDaemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * A JobListener that prints the job's progress, failures and throughput
+     */
+    private static class ConsoleListener implements JobListener {
+        private final int numFiles;
+        private int numDone = 0;
+        private int numFailed = 0;
+        private long inputBytes = 0;
+        private int lastStep = 0;
+
+        ConsoleListener(int numFiles) {
+            this.numFiles = numFiles;
+        }
+
+        @Override
+        public void jobStarted(Job job) {
+            System.out.println("Applying " + job.getFilterName() + " to " + job.getNumInputFiles() + " image" +
+                    (job.getNumInputFiles() == 1 ? "" : "s"));
+        }
+
+        @Override
+        public synchronized void workUnitDone(Job job, Job.ImgTransformOutcome outcome, double progress) {
+            this.numDone++;
+            this.inputBytes += outcome.inputFile.toFile().length();
+            if (!outcome.success) {
+                this.numFailed++;
+                System.err.println(outcome.inputFile + ": " + outcome.error.getMessage());
+            }
+
+            int step = (int) (progress * PROGRESS_STEPS);
+            if (step > this.lastStep) {
+                this.lastStep = step;
+                System.out.println(this.numDone + "/" + this.numFiles + " images done");
+            }
+        }
+
+        @Override
+        public synchronized void jobFinished(Job job, boolean canceled) {
+            double seconds = job.getExecutingTime() / 1000.0;
+            System.out.println((this.numDone - this.numFailed) + " images written, " + this.numFailed + " failed, in " +
+                    seconds + "s");
+            System.out.printf("Throughput: %.2f images/s, %.2f MB/s (of input files)%n",
+                    this.numDone / seconds, this.inputBytes / 1048576.0 / seconds);
+            System.out.println("Reading Time: " + job.getReadingTime() / 1000.0 + "s, Processing Time: " +
+                    job.getProcessingTime() / 1000.0 + "s, Writing Time: " + job.getWritingTime() / 1000.0 +
+                    "s (summed over threads)");
+            if (OutputCache.isEnabled()) {
+                System.out.println("Output cache: " + OutputCache.getSummary());
+            }
+            System.out.print(LatencyMetrics.getSummary());
+        }
+    }
+}
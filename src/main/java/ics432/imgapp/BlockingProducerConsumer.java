@@ -0,0 +1,95 @@
+package ics432.imgapp;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A ProducerConsumer backed by an ArrayBlockingQueue (i.e., with a single lock
+ * shared by producers and consumers)
+ */
+class BlockingProducerConsumer extends ProducerConsumer {
+
+    // How often waiting consumers check whether the buffer has been shut down
+    private static final long SHUTDOWN_CHECK_MS = 100;
+
+    private final ArrayBlockingQueue<WorkUnit> buffer;
+    private volatile boolean shutdown = false;
+
+    /**
+     * Constructor
+     *
+     * @param capacity The maximum number of work units in the buffer
+     */
+    BlockingProducerConsumer(int capacity) {
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+    }
+
+    public boolean put(WorkUnit workUnit) {
+        if (this.shutdown) {
+            throw new IllegalStateException("Buffer is shut down");
+        }
+        try {
+            // The wait time of a unit put in a full buffer includes the wait for room
+            enqueued(workUnit);
+            this.buffer.put(workUnit);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public int putAll(List<WorkUnit> workUnits) {
+        int count = 0;
+        for (WorkUnit workUnit : workUnits) {
+            if (!put(workUnit)) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    public WorkUnit get() {
+        try {
+            while (true) {
+                WorkUnit workUnit = this.buffer.poll(SHUTDOWN_CHECK_MS, TimeUnit.MILLISECONDS);
+                if (workUnit == null && this.shutdown) {
+                    workUnit = this.buffer.poll();
+                    if (workUnit == null) {
+                        return null;
+                    }
+                }
+                if (workUnit != null) {
+                    dequeued(workUnit);
+                    return workUnit;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    public int drainTo(List<WorkUnit> workUnits, int max) {
+        WorkUnit first = get();
+        if (first == null) {
+            return 0;
+        }
+        workUnits.add(first);
+        int drained = this.buffer.drainTo(workUnits, max - 1);
+        for (int i = workUnits.size() - drained; i < workUnits.size(); i++) {
+            dequeued(workUnits.get(i));
+        }
+        return 1 + drained;
+    }
+
+    public int getSize() {
+        return this.buffer.size();
+    }
+
+    public void shutdown() {
+        this.shutdown = true;
+    }
+}
@@ -0,0 +1,132 @@
+package ics432.imgapp;
+
+import java.awt.RenderingHints;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ColorModel;
+
+/**
+ * An in-process, data-parallel port of the Sobel edge filter implemented in C in
+ * external_filters/c_filters/src/jpegedge.c. It computes the same pixel values:
+ * border pixels are black, and other pixels are max(70, gradient magnitude),
+ * converted to a byte the way the C code does it (i.e., keeping the low 8 bits).
+ */
+public class DPEdgeFilter implements BufferedImageOp {
+
+    // The minimum number of rows processed by a single task
+    private static final int MIN_BAND_ROWS = 16;
+
+    private final PixelKernels kernels;
+
+    /**
+     * Constructor (rows are processed by the shared DPThreadPool)
+     */
+    public DPEdgeFilter() {
+        this(null);
+    }
+
+    /**
+     * Constructor (rows are processed by the shared DPThreadPool)
+     *
+     * @param kernels The SIMD kernels to use (or null to only use scalar code)
+     */
+    public DPEdgeFilter(PixelKernels kernels) {
+        this.kernels = kernels;
+    }
+
+    public BufferedImage filter(BufferedImage inputImg, BufferedImage outputImg) {
+        int width = inputImg.getWidth();
+        int height = inputImg.getHeight();
+
+        // If second argument is null, then filter() method allocates the output image object, otherwise is uses the one passed in.
+        if (outputImg == null) {
+            // allocate the output image object
+            outputImg = new BufferedImage(width, height, inputImg.getType());
+        }
+
+        int[] src = RasterAccess.getPixels(inputImg);
+        int[] dst = RasterAccess.intPixels(outputImg);
+        if (dst == null) {
+            dst = new int[width * height];
+        }
+
+        // process bands of rows of the picture in the shared pool
+        int[] output = dst;
+        DPThreadPool.processRows(height, MIN_BAND_ROWS,
+                (start, stop) -> edgeRows(src, output, width, height, start, stop, this.kernels));
+
+        RasterAccess.setPixels(outputImg, dst);
+        return outputImg;
+    }
+
+    /**
+     * Helper method to compute a band of output rows
+     *
+     * @param src     The input pixels
+     * @param dst     The output pixels
+     * @param width   The image width
+     * @param height  The image height
+     * @param start   The first row to compute
+     * @param stop    The row after the last row to compute
+     * @param kernels The SIMD kernels (or null)
+     */
+    private static void edgeRows(int[] src, int[] dst, int width, int height, int start, int stop,
+                                 PixelKernels kernels) {
+        for (int row = start; row < stop; row++) {
+            int first = 0;
+            if (kernels != null && row > 0 && row < height - 1) {
+                // Border column 0 first, then the interior pixels the kernels can process
+                dst[row * width] = src[row * width] & 0xFF000000;
+                first = kernels.sobel(src, dst, row * width, width);
+            }
+            int i = row * width + first;
+            for (int col = first; col < width; col++, i++) {
+                // If a border pixel, black
+                if (row == 0 || col == 0 || row == height - 1 || col == width - 1) {
+                    dst[i] = src[i] & 0xFF000000;
+                    continue;
+                }
+                int pixel = src[i] & 0xFF000000;
+                for (int shift = 16; shift >= 0; shift -= 8) {
+                    int nw = (src[i - width - 1] >> shift) & 0xFF;
+                    int n = (src[i - width] >> shift) & 0xFF;
+                    int ne = (src[i - width + 1] >> shift) & 0xFF;
+                    int w = (src[i - 1] >> shift) & 0xFF;
+                    int e = (src[i + 1] >> shift) & 0xFF;
+                    int sw = (src[i + width - 1] >> shift) & 0xFF;
+                    int s = (src[i + width] >> shift) & 0xFF;
+                    int se = (src[i + width + 1] >> shift) & 0xFF;
+
+                    int s1 = (ne + 2 * e + se) - (nw + 2 * w + sw);
+                    int s2 = (sw + 2 * s + se) - (nw + 2 * n + ne);
+
+                    double value = Math.max(Math.sqrt((double) (s1 * s1 + s2 * s2)), 70.0);
+                    pixel |= ((int) value & 0xFF) << shift;
+                }
+                dst[i] = pixel;
+            }
+        }
+    }
+
+    @Override
+    public BufferedImage createCompatibleDestImage(BufferedImage arg0, ColorModel arg1) {
+        return null;
+    }
+
+    @Override
+    public Rectangle2D getBounds2D(BufferedImage arg0) {
+        return null;
+    }
+
+    @Override
+    public Point2D getPoint2D(Point2D arg0, Point2D arg1) {
+        return null;
+    }
+
+    @Override
+    public RenderingHints getRenderingHints() {
+        return null;
+    }
+}
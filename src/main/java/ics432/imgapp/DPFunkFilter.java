@@ -0,0 +1,203 @@
+package ics432.imgapp;
+
+import java.awt.RenderingHints;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ColorModel;
+import java.util.Arrays;
+
+/**
+ * An in-process, data-parallel port of the "funk" filter implemented in C in
+ * external_filters/c_filters/src/jpegfunk1.c and jpegfunk2.c. Each output sample is
+ * computed from the min, median and max of a window whose radius grows from 1 at
+ * the top-left of the image to 25 at the bottom-right, exactly as in the C code.
+ *
+ * The two C versions only differ in how rows are scheduled among threads: jpegfunk1
+ * gives each thread one contiguous chunk of rows, while jpegfunk2 schedules rows
+ * dynamically (the bottom rows being much more expensive than the top rows).
+ */
+public class DPFunkFilter implements BufferedImageOp {
+
+    // The minimum number of rows processed by a single task, when balancing
+    private static final int MIN_BAND_ROWS = 4;
+
+    private final boolean balanced;
+
+    /**
+     * Constructor (rows are processed by the shared DPThreadPool)
+     *
+     * @param balanced Whether rows are split in many small bands (as in jpegfunk2) rather
+     *                 than in one band per thread (as in jpegfunk1)
+     */
+    public DPFunkFilter(boolean balanced) {
+        this.balanced = balanced;
+    }
+
+    public BufferedImage filter(BufferedImage inputImg, BufferedImage outputImg) {
+        int width = inputImg.getWidth();
+        int height = inputImg.getHeight();
+
+        // If second argument is null, then filter() method allocates the output image object, otherwise is uses the one passed in.
+        if (outputImg == null) {
+            // allocate the output image object
+            outputImg = new BufferedImage(width, height, inputImg.getType());
+        }
+
+        int[] src = RasterAccess.getPixels(inputImg);
+        int[] dst = RasterAccess.intPixels(outputImg);
+        if (dst == null) {
+            dst = new int[width * height];
+        }
+
+        // process bands of rows of the picture in the shared pool
+        int[] output = dst;
+        if (this.balanced) {
+            DPThreadPool.processRows(height, MIN_BAND_ROWS,
+                    (start, stop) -> funkRows(src, output, width, height, start, stop));
+        } else {
+            DPThreadPool.processChunks(height, (start, stop) -> funkRows(src, output, width, height, start, stop));
+        }
+
+        RasterAccess.setPixels(outputImg, dst);
+        return outputImg;
+    }
+
+    /**
+     * Helper method to compute a band of output rows. Along each row, the window is
+     * slid by updating a 256-bin histogram per channel with the rows/columns that
+     * enter and leave it, and the min, median and max are found by scanning the
+     * histogram (rather than by sorting all window samples for every pixel).
+     *
+     * @param src    The input pixels
+     * @param dst    The output pixels
+     * @param width  The image width
+     * @param height The image height
+     * @param start  The first row to compute
+     * @param stop   The row after the last row to compute
+     */
+    private static void funkRows(int[] src, int[] dst, int width, int height, int start, int stop) {
+        // The histograms of the red, green and blue samples (256 bins each) in the window
+        int[] hist = new int[3 * 256];
+
+        for (int row = start; row < stop; row++) {
+            // The current window (empty)
+            int rowLBound = 0, rowUBound = -1, colLBound = 0, colUBound = -1;
+            Arrays.fill(hist, 0);
+
+            for (int col = 0; col < width; col++) {
+                double radius = Math.max(1.0, (5.0 * col / (double) width) + (20.0 * row / (double) height));
+
+                // Bounds are computed (and truncated) as in the C code, which makes the upper
+                // bounds inclusive of row "height" and column "width"
+                int newRowLBound = (int) Math.max(0, row - radius);
+                int newRowUBound = (int) Math.min(height, row + radius);
+                int newColLBound = (int) Math.max(0, col - radius);
+                int newColUBound = (int) Math.min(width, col + radius);
+
+                // Move the window's rows (over the current columns)
+                for (int i = rowLBound; i <= rowUBound; i++) {
+                    if (i < newRowLBound || i > newRowUBound) {
+                        addToHistogram(hist, src, width, i, i, colLBound, colUBound, -1);
+                    }
+                }
+                for (int i = newRowLBound; i <= newRowUBound; i++) {
+                    if (i < rowLBound || i > rowUBound) {
+                        addToHistogram(hist, src, width, i, i, colLBound, colUBound, 1);
+                    }
+                }
+                rowLBound = newRowLBound;
+                rowUBound = newRowUBound;
+
+                // Move the window's columns (over the new rows)
+                for (int j = colLBound; j <= colUBound; j++) {
+                    if (j < newColLBound || j > newColUBound) {
+                        addToHistogram(hist, src, width, rowLBound, rowUBound, j, j, -1);
+                    }
+                }
+                for (int j = newColLBound; j <= newColUBound; j++) {
+                    if (j < colLBound || j > colUBound) {
+                        addToHistogram(hist, src, width, rowLBound, rowUBound, j, j, 1);
+                    }
+                }
+                colLBound = newColLBound;
+                colUBound = newColUBound;
+
+                int numValues = (rowUBound - rowLBound + 1) * (colUBound - colLBound + 1);
+                int pixel = src[row * width + col] & 0xFF000000;
+                for (int c = 0; c < 3; c++) {
+                    int base = c * 256;
+                    int min = 0;
+                    while (hist[base + min] == 0) {
+                        min++;
+                    }
+                    int max = 255;
+                    while (hist[base + max] == 0) {
+                        max--;
+                    }
+                    int median = min;
+                    for (int rank = numValues / 2 - hist[base + min]; rank >= 0; rank -= hist[base + median]) {
+                        median++;
+                    }
+                    pixel |= funk(min, median, max) << (16 - 8 * c);
+                }
+                dst[row * width + col] = pixel;
+            }
+        }
+    }
+
+    /**
+     * Helper method to add (or remove) the samples of a rectangle of the window to (from)
+     * the red, green and blue histograms
+     */
+    private static void addToHistogram(int[] hist, int[] src, int width,
+                                       int rowLBound, int rowUBound, int colLBound, int colUBound, int delta) {
+        for (int i = rowLBound; i <= rowUBound; i++) {
+            for (int j = colLBound; j <= colUBound; j++) {
+                int index = i * width + j;
+                hist[sample(src, index, 16)] += delta;
+                hist[256 + sample(src, index, 8)] += delta;
+                hist[512 + sample(src, index, 0)] += delta;
+            }
+        }
+    }
+
+    /**
+     * Helper method to read a sample at a row-major index, as the C code does. Column "width"
+     * thus reads the first pixel of the next row, and indices past the last pixel (which in C
+     * read past the end of the buffer) read as 0.
+     */
+    static int sample(int[] src, int index, int shift) {
+        return index < src.length ? (src[index] >> shift) & 0xFF : 0;
+    }
+
+    /**
+     * Helper method to compute the output sample from the window's min, median and max,
+     * converted to a byte the way the C code does it (i.e., keeping the low 8 bits)
+     */
+    static int funk(int min, int median, int max) {
+        double funky = Math.max(0, (double) max - (double) median / 2.0 + (double) min / (4.0));
+        return (int) funky & 0xFF;
+    }
+
+    @Override
+    public BufferedImage createCompatibleDestImage(BufferedImage arg0, ColorModel arg1) {
+        return null;
+    }
+
+    @Override
+    public Rectangle2D getBounds2D(BufferedImage arg0) {
+        return null;
+    }
+
+    @Override
+    public Point2D getPoint2D(Point2D arg0, Point2D arg1) {
+        return null;
+    }
+
+    @Override
+    public RenderingHints getRenderingHints() {
+        return null;
+    }
+}
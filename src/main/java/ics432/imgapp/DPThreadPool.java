@@ -0,0 +1,147 @@
+package ics432.imgapp;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A helper class that holds the application-wide pool of threads used by all
+ * data-parallel filters. Its size is set by the "#dp_threads" slider. Filters
+ * split their rows into fine-grained bands, so that idle threads can steal
+ * bands from images that are still being processed by other threads.
+ */
+class DPThreadPool {
+
+    // Aim for this many bands per thread, so that work can be balanced by stealing
+    private static final int BANDS_PER_THREAD = 4;
+
+    private static ForkJoinPool pool = new ForkJoinPool(1);
+
+    /**
+     * Interface implemented by filters to process a band of rows
+     */
+    interface RowBandTask {
+        /**
+         * Method to process a band of rows
+         *
+         * @param start The first row of the band
+         * @param stop  The row after the last row of the band
+         */
+        void run(int start, int stop);
+    }
+
+    /**
+     * Method to set the number of threads in the pool. The previous pool (if any)
+     * finishes the tasks it was given before its threads terminate.
+     *
+     * @param numThreads The number of threads
+     */
+    static synchronized void setNumThreads(int numThreads) {
+        if (numThreads != pool.getParallelism()) {
+            ForkJoinPool oldPool = pool;
+            pool = new ForkJoinPool(numThreads);
+            oldPool.shutdown();
+        }
+    }
+
+    /**
+     * Method to get the number of threads in the pool
+     *
+     * @return the number of threads
+     */
+    static synchronized int getNumThreads() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Method to process all rows of an image in bands, in parallel, and to
+     * wait until all bands have been processed
+     *
+     * @param height      The number of rows
+     * @param minBandRows The minimum number of rows in a band
+     * @param task        The band processing task
+     */
+    static void processRows(int height, int minBandRows, RowBandTask task) {
+        ForkJoinPool current;
+        synchronized (DPThreadPool.class) {
+            current = pool;
+        }
+        int bandRows = Math.max(minBandRows, (height - 1) / (BANDS_PER_THREAD * current.getParallelism()) + 1);
+        current.invoke(new RowBandAction(task, 0, height, bandRows));
+    }
+
+    /**
+     * Method to process all rows of an image in one contiguous chunk of rows per thread of
+     * the pool (no more, even if the chunks are unbalanced), in parallel, and to wait until
+     * all chunks have been processed
+     *
+     * @param height The number of rows
+     * @param task   The chunk processing task
+     */
+    static void processChunks(int height, RowBandTask task) {
+        ForkJoinPool current;
+        synchronized (DPThreadPool.class) {
+            current = pool;
+        }
+        int numChunks = Math.max(1, Math.min(height, current.getParallelism()));
+        current.invoke(new ChunkAction(task, height, numChunks, 0, numChunks));
+    }
+
+    /**
+     * A ForkJoin task that splits a range of chunks in halves until it is a single chunk
+     * (chunk i being rows i * height / numChunks to (i + 1) * height / numChunks)
+     */
+    private static class ChunkAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RowBandTask task;
+        private final int height, numChunks, first, last;
+
+        ChunkAction(RowBandTask task, int height, int numChunks, int first, int last) {
+            this.task = task;
+            this.height = height;
+            this.numChunks = numChunks;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.last - this.first == 1) {
+                this.task.run((int) ((long) this.first * this.height / this.numChunks),
+                        (int) ((long) this.last * this.height / this.numChunks));
+            } else {
+                int middle = (this.first + this.last) >>> 1;
+                invokeAll(new ChunkAction(this.task, this.height, this.numChunks, this.first, middle),
+                        new ChunkAction(this.task, this.height, this.numChunks, middle, this.last));
+            }
+        }
+    }
+
+    /**
+     * A ForkJoin task that splits a range of rows in halves until it is small enough
+     */
+    private static class RowBandAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RowBandTask task;
+        private final int start, stop, bandRows;
+
+        RowBandAction(RowBandTask task, int start, int stop, int bandRows) {
+            this.task = task;
+            this.start = start;
+            this.stop = stop;
+            this.bandRows = bandRows;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.stop - this.start <= this.bandRows) {
+                this.task.run(this.start, this.stop);
+            } else {
+                int middle = (this.start + this.stop) >>> 1;
+                invokeAll(new RowBandAction(this.task, this.start, middle, this.bandRows),
+                        new RowBandAction(this.task, middle, this.stop, this.bandRows));
+            }
+        }
+    }
+}
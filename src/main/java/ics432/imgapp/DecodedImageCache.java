@@ -0,0 +1,187 @@
+package ics432.imgapp;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A helper class that implements an in-memory cache of decoded input images, shared by
+ * all jobs, so that jobs that apply different filters to the same files (e.g., Invert,
+ * then Median, then Oil4) only decode each file once. A decoded image is keyed by its
+ * file's path, modification time and size, so that a modified file is decoded again.
+ * Cached images are shared by work units, which is fine since filters never write into
+ * their input image.
+ *
+ * The total size of the cached images is capped (the "imgapp.decodedCache.maxMB" property,
+ * by default a fifth of the maximum heap size, with 0 to disable the cache), and the least
+ * recently used images are evicted first. Images are only softly referenced, so that the
+ * garbage collector can reclaim them (before running out of memory) if the pipeline needs
+ * more memory than the MemoryBudget expected.
+ */
+class DecodedImageCache {
+
+    private static volatile long maxBytes = Long.getLong("imgapp.decodedCache.maxMB",
+            Runtime.getRuntime().maxMemory() / 5 / (1024 * 1024)) * 1024 * 1024;
+
+    // The cached images, by key, in least recently used order
+    private static final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // The entries whose image was reclaimed by the garbage collector
+    private static final ReferenceQueue<BufferedImage> reclaimed = new ReferenceQueue<>();
+    private static long usedBytes = 0;
+
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long evictions = 0;
+    private static long reclamations = 0;
+
+    /**
+     * A helper nested class for a cached image (which knows its key and size, so that it
+     * can be removed once the garbage collector has reclaimed the image)
+     */
+    private static class Entry extends SoftReference<BufferedImage> {
+        final String key;
+        final long size;
+
+        Entry(String key, BufferedImage image, long size) {
+            super(image, reclaimed);
+            this.key = key;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Method to set the maximum size of the cache (the least recently used images are evicted
+     * if it is exceeded)
+     *
+     * @param bytes The maximum size, in bytes (or 0 to disable the cache)
+     */
+    static synchronized void setMaxBytes(long bytes) {
+        maxBytes = bytes;
+        evict();
+    }
+
+    /**
+     * Method to check whether the cache is enabled
+     */
+    static boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Method to compute the key of an input file
+     *
+     * @param inputFile The input file path
+     *
+     * @return the key
+     *
+     * @throws IOException if the input file's attributes cannot be read
+     */
+    static String computeKey(Path inputFile) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(inputFile, BasicFileAttributes.class);
+        return inputFile.toAbsolutePath() + "|" + attributes.lastModifiedTime().toMillis() + "|" + attributes.size();
+    }
+
+    /**
+     * Method to check whether the image of a key is cached (without counting a hit or a miss)
+     *
+     * @param key The key
+     */
+    static synchronized boolean contains(String key) {
+        purge();
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Method to get the cached image of a key
+     *
+     * @param key The key
+     *
+     * @return the image (which must not be modified), or null on a miss
+     */
+    static synchronized BufferedImage get(String key) {
+        purge();
+        // get() also makes the image the most recently used
+        Entry entry = entries.get(key);
+        BufferedImage image = entry == null ? null : entry.get();
+        if (image == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return image;
+    }
+
+    /**
+     * Method to add a decoded image to the cache (unless it is larger than the whole cache)
+     *
+     * @param key   The key
+     * @param image The image (which must not be modified afterwards)
+     */
+    static synchronized void put(String key, BufferedImage image) {
+        long size = sizeOf(image);
+        if (size > maxBytes) {
+            return;
+        }
+        purge();
+        Entry previous = entries.put(key, new Entry(key, image, size));
+        if (previous != null) {
+            usedBytes -= previous.size;
+        }
+        usedBytes += size;
+        evict();
+    }
+
+    /**
+     * Method to get a summary of the cache's statistics
+     */
+    static synchronized String getSummary() {
+        purge();
+        long lookups = hits + misses;
+        return String.format("%d hits, %d misses (%.1f%% hit rate), %d evictions, %d reclaimed, %d / %d MB resident",
+                hits, misses, lookups == 0 ? 0.0 : 100.0 * hits / lookups, evictions, reclamations,
+                usedBytes / (1024 * 1024), maxBytes / (1024 * 1024));
+    }
+
+    /**
+     * Helper method to compute the number of bytes taken by an image's pixels
+     */
+    private static long sizeOf(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * Helper method to remove the entries whose image was reclaimed by the garbage collector
+     */
+    private static void purge() {
+        Entry entry;
+        while ((entry = (Entry) reclaimed.poll()) != null) {
+            // The key may have been evicted, or cached again, in the meantime
+            if (entries.remove(entry.key, entry)) {
+                usedBytes -= entry.size;
+                reclamations++;
+            }
+        }
+    }
+
+    /**
+     * Helper method to evict the least recently used images until the cache fits in its maximum size
+     */
+    private static void evict() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (usedBytes > maxBytes && it.hasNext()) {
+            Entry entry = it.next();
+            usedBytes -= entry.size;
+            it.remove();
+            evictions++;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package ics432.imgapp;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A helper class that implements the files of a disk cache (see OutputCache and
+ * ThumbnailLoader): files named after their key in a directory, whose total size is
+ * capped, the least recently used files being evicted first. The recency order survives
+ * restarts, since files that are used get their modification time updated.
+ *
+ * Only files named after a key (as matched by a pattern) are part of the cache: other
+ * files in the directory are never indexed, evicted or deleted, except the cache's own
+ * leftover temporary files.
+ */
+class DiskLruCache {
+
+    /**
+     * Interface for writing the file of a new entry
+     */
+    interface FileWriter {
+        /**
+         * Method to write the file
+         *
+         * @param file The (temporary) file path
+         *
+         * @throws IOException if the file cannot be written
+         */
+        void write(Path file) throws IOException;
+    }
+
+    private final String name;
+    private final Path directory;
+    private final String extension;
+    // The names of cached files, and of leftover temporary files (see put())
+    private final Pattern cachedName;
+    private final Pattern tmpName;
+    private volatile long maxBytes;
+
+    // The sizes of cached files, by key, in least recently used order (loaded on first use)
+    private Map<String, Long> entries = null;
+    private long usedBytes = 0;
+    private long evictions = 0;
+
+    /**
+     * Constructor
+     *
+     * @param name      The name of the cache (in error messages)
+     * @param directory The cache directory
+     * @param extension The file name extension of cached files (e.g., ".jpg")
+     * @param keyRegex  The regular expression that all keys match
+     * @param maxBytes  The maximum size of the cache, in bytes
+     */
+    DiskLruCache(String name, Path directory, String extension, String keyRegex, long maxBytes) {
+        this.name = name;
+        this.directory = directory;
+        this.extension = extension;
+        this.cachedName = Pattern.compile("(" + keyRegex + ")" + Pattern.quote(extension));
+        this.tmpName = Pattern.compile("(" + keyRegex + ")[0-9]*\\.tmp");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Method to set the maximum size of the cache (the least recently used files are evicted
+     * if it is exceeded)
+     *
+     * @param bytes The maximum size, in bytes (0 disables the cache, without evicting its files)
+     */
+    void setMaxBytes(long bytes) {
+        this.maxBytes = bytes;
+        if (bytes > 0) {
+            synchronized (this) {
+                if (this.entries != null) {
+                    evict();
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to get the maximum size of the cache
+     *
+     * @return the maximum size, in bytes (0 if the cache is disabled)
+     */
+    long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    /**
+     * Method to get the total size of the cached files
+     */
+    synchronized long getUsedBytes() {
+        return this.usedBytes;
+    }
+
+    /**
+     * Method to get the number of files evicted so far
+     */
+    synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    /**
+     * Method to check whether a key is cached (without making it the most recently used)
+     *
+     * @param key The key
+     */
+    synchronized boolean contains(String key) {
+        load();
+        return this.entries.containsKey(key);
+    }
+
+    /**
+     * Method to look a key up, which makes it the most recently used. The caller must
+     * then call touch() once it has used the file, or remove() if it turned out to be
+     * missing or unreadable.
+     *
+     * @param key The key
+     *
+     * @return the cached file, or null on a miss
+     */
+    synchronized Path get(String key) {
+        load();
+        // get() also makes the key the most recently used
+        return this.entries.get(key) == null ? null : this.directory.resolve(key + this.extension);
+    }
+
+    /**
+     * Method to record that the file of a key has been used, so that the recency order survives restarts
+     *
+     * @param key The key
+     */
+    void touch(String key) {
+        try {
+            Files.setLastModifiedTime(this.directory.resolve(key + this.extension),
+                    FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignore) {
+            // The file was evicted (or deleted) in the meantime
+        }
+    }
+
+    /**
+     * Method to forget a key whose file turned out to be missing or unreadable
+     *
+     * @param key The key
+     */
+    synchronized void remove(String key) {
+        load();
+        Long size = this.entries.remove(key);
+        if (size != null) {
+            this.usedBytes -= size;
+        }
+    }
+
+    /**
+     * Method to add the file of a key. It is written to a temporary file first, and then
+     * moved into place, so that the cache never holds a partial file.
+     *
+     * @param key    The key
+     * @param writer The writer of the file
+     *
+     * @throws IOException if the file cannot be written
+     */
+    void put(String key, FileWriter writer) throws IOException {
+        synchronized (this) {
+            load();
+        }
+
+        long size;
+        Path tmp = Files.createTempFile(this.directory, key, ".tmp");
+        try {
+            writer.write(tmp);
+            size = Files.size(tmp);
+            Files.move(tmp, this.directory.resolve(key + this.extension), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        synchronized (this) {
+            Long previous = this.entries.put(key, size);
+            this.usedBytes += size - (previous == null ? 0 : previous);
+            evict();
+        }
+    }
+
+    /**
+     * Helper method to load the index of cached files from the cache directory (the first
+     * time it is needed), in least recently used order, and to delete leftover temporary files
+     */
+    private void load() {
+        if (this.entries != null) {
+            return;
+        }
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        Map<String, BasicFileAttributes> attributes = new HashMap<>();
+        try {
+            Files.createDirectories(this.directory);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory)) {
+                for (Path file : stream) {
+                    String fileName = file.getFileName().toString();
+                    if (this.cachedName.matcher(fileName).matches()) {
+                        try {
+                            attributes.put(fileName.substring(0, fileName.length() - this.extension.length()),
+                                    Files.readAttributes(file, BasicFileAttributes.class));
+                        } catch (IOException ignore) {
+                        }
+                    } else if (this.tmpName.matcher(fileName).matches()) {
+                        // A leftover temporary file (see put())
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot read the " + this.name + " directory " + this.directory + " (" +
+                    e.getMessage() + ")");
+        }
+
+        attributes.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue((a, b) -> a.lastModifiedTime().compareTo(b.lastModifiedTime())))
+                .forEach(e -> {
+                    this.entries.put(e.getKey(), e.getValue().size());
+                    this.usedBytes += e.getValue().size();
+                });
+        if (this.maxBytes > 0) {
+            evict();
+        }
+    }
+
+    /**
+     * Helper method to evict the least recently used files until the cache fits in its maximum size
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = this.entries.entrySet().iterator();
+        while (this.usedBytes > this.maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            try {
+                Files.deleteIfExists(this.directory.resolve(entry.getKey() + this.extension));
+            } catch (IOException e) {
+                System.err.println("Cannot evict " + entry.getKey() + " from the " + this.name + " (" +
+                        e.getMessage() + ")");
+            }
+            this.usedBytes -= entry.getValue();
+            it.remove();
+            this.evictions++;
+        }
+    }
+}
@@ -12,9 +12,22 @@ import javafx.scene.image.ImageView;
 import javafx.scene.input.KeyCode;
 import javafx.scene.layout.HBox;
 
-import java.net.MalformedURLException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 
 /**
@@ -25,10 +38,26 @@ import java.util.function.Consumer;
  * arrow keys. Entries can be selected using shift, and ^a selects all entries.
  * If the widget is set to be "editable", then entries can be
  * removed by the user by using the backspace key. This class extends HBox.
+ *
+ * The list scales to hundreds of thousands of entries: duplicates are detected with a
+ * hashed index of the entries, files are added to the list in one change, and the metadata
+ * shown with each entry (file size and image dimensions) is only loaded, in the background,
+ * for the entries that are visible.
  */
 class FileListWithViewPort extends HBox {
 
+    // The metadata of entries is read from file headers one file at a time, in the order the cells need it
+    private static final ExecutorService metadataLoader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "File metadata loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final ObservableList<Path> availableFiles;
+    // The entries of availableFiles, to detect duplicates in constant time
+    private final Set<Path> fileIndex = new HashSet<>();
+    // The metadata of the entries that were visible at some point (only used in the JavaFX thread)
+    private final Map<Path, String> fileMetadata = new HashMap<>();
     private final ListView<Path> availableFilesView;
     private final ImageView iv;
     private final double height;
@@ -37,6 +66,9 @@ class FileListWithViewPort extends HBox {
     private final Image brokenImage;
     private final SimpleBooleanProperty nothingIsSelected;
     private final boolean isEditable;
+    private final ThumbnailLoader thumbnails;
+    // The image file displayed (or being loaded) in the viewport
+    private Path displayedFile;
 
     /**
      * Constructor
@@ -70,21 +102,43 @@ class FileListWithViewPort extends HBox {
         this.emptyImage = Util.loadImageFromResourceFile("main","empty-image.png");
         this.brokenImage = Util.loadImageFromResourceFile("main","broken-image.png");
 
+        // Previews are loaded in the background, at the viewport's (maximum) size
+        this.thumbnails = new ThumbnailLoader(2 * width / 3, height);
+
         // Create the left-hand side file list (a ListView of an observable list of Path objects)
         this.availableFiles = FXCollections.observableArrayList();
         this.availableFilesView = new ListView<>(availableFiles);
         // Set what is displayed in the ListView for each entry, if any
         this.availableFilesView.setCellFactory(param -> new ListCell<>() {
+            // The load of the metadata of the cell's entry, if it is queued or running
+            private Future<?> metadataLoad;
+
             @Override
             protected void updateItem(Path item, boolean empty) {
-                Platform.runLater(() -> {
-                    super.updateItem(item, empty);
-                    if (empty || item == null) {
-                        setText(null); // nothing
-                    } else {
-                        setText(item.toAbsolutePath().toString());  // the file path
-                    }
-                });
+                super.updateItem(item, empty);
+                // The cell is reused for another entry (e.g., while scrolling)
+                if (this.metadataLoad != null) {
+                    this.metadataLoad.cancel(false);
+                    this.metadataLoad = null;
+                }
+                if (empty || item == null) {
+                    setText(null); // nothing
+                    return;
+                }
+
+                String metadata = fileMetadata.get(item);
+                setText(item.toAbsolutePath() + (metadata == null ? "" : "  (" + metadata + ")"));  // the file path
+                if (metadata == null) {
+                    this.metadataLoad = metadataLoader.submit(() -> {
+                        String loaded = readMetadata(item);
+                        Platform.runLater(() -> {
+                            fileMetadata.put(item, loaded);
+                            if (item.equals(getItem())) {
+                                setText(item.toAbsolutePath() + "  (" + loaded + ")");
+                            }
+                        });
+                    });
+                }
             }
         });
 
@@ -118,7 +172,11 @@ class FileListWithViewPort extends HBox {
             if (this.isEditable && (e.getCode() == KeyCode.BACK_SPACE)) {
 
                 int to_select_after = Math.max(0, this.availableFilesView.getSelectionModel().getSelectedIndices().get(0) - 1);
-                this.availableFiles.removeAll(this.availableFilesView.getSelectionModel().getSelectedItems());
+                // A set, so that removing many entries doesn't take quadratic time
+                Set<Path> toRemove = new HashSet<>(this.availableFilesView.getSelectionModel().getSelectedItems());
+                this.availableFiles.removeAll(toRemove);
+                this.fileIndex.removeAll(toRemove);
+                this.fileMetadata.keySet().removeAll(toRemove);
                 if (this.availableFiles.size() > 0) {
                     this.availableFilesView.getSelectionModel().select(to_select_after);
                 }
@@ -170,6 +228,8 @@ class FileListWithViewPort extends HBox {
      */
     private void clearFileList() {
         this.availableFiles.clear();
+        this.fileIndex.clear();
+        this.fileMetadata.clear();
         this.nothingIsSelected.setValue(true);
         this.displayInViewPort((Path) null);
     }
@@ -184,7 +244,7 @@ class FileListWithViewPort extends HBox {
     }
 
     /**
-     * Method to add file paths to the ListView
+     * Method to add file paths to the ListView (paths that are already in it are skipped)
      *
      * @param toAdd List of Path objects
      */
@@ -193,23 +253,32 @@ class FileListWithViewPort extends HBox {
         // If null is passed in, do nothing
         if (toAdd == null) return;
 
-        // Add the file paths to the file list
+        // Must be done in the JavaFX application thread (see clear())
+        if (! Platform.isFxApplicationThread()) {
+            List<Path> files = new ArrayList<>(toAdd);
+            Platform.runLater(() -> this.addFileList(files));
+        } else {
+            this.addFileList(toAdd);
+        }
+    }
+
+    /**
+     * Method to add file paths to the file list (should always run in the JavaFX Application thread)
+     *
+     * @param toAdd List of Path objects
+     */
+    private void addFileList(List<Path> toAdd) {
+        // Determine which file paths are new (the index is also updated, which skips duplicates in toAdd)
+        List<Path> newFiles = new ArrayList<>();
         for (Path f : toAdd) {
-            // Determine if this is a new file path
-            boolean add = true;
-            for (Path g : availableFiles) {
-                if (f.equals(g)) {
-                    add = false;
-                    break;
-                }
-            }
-            // If was a new path, then add it.
-            if (add) {
-                this.availableFiles.add(f);
+            if (this.fileIndex.add(f)) {
+                newFiles.add(f);
             }
         }
+        // Add them in one change, so that the ListView is only updated once
+        this.availableFiles.addAll(newFiles);
 
-        Platform.runLater(()-> this.nothingIsSelected.setValue(this.availableFilesView.getSelectionModel().getSelectedItems().isEmpty()));
+        this.nothingIsSelected.setValue(this.availableFilesView.getSelectionModel().getSelectedItems().isEmpty());
     }
 
     /**
@@ -222,30 +291,88 @@ class FileListWithViewPort extends HBox {
     }
 
     /**
-     * Helper method to display and image file in the viewport.
+     * Helper method to display and image file in the viewport. The image is loaded in the
+     * background (the empty image is displayed meanwhile), and so are the images of the
+     * previous and next entries, which are likely to be displayed next.
      *
      * @param file The image file to display in the viewport. If null is passed, then
      *             the empty image will be displayed. If an invalid path is passed, then
      *             the broken image will be displayed.
      */
     private void displayInViewPort(Path file) {
+        this.displayedFile = file;
 
-        // Initialize the image display to the broken image in case the path is invalid
-        Image img = brokenImage;
-
+        List<Path> wanted = new ArrayList<>();
         if (file != null) {
-            try {
-                img = new Image(file.toUri().toURL().toString());
-            } catch (MalformedURLException ignore) {
-            }
-            if (img.isError()) {
-                img = brokenImage;
+            wanted.add(file);
+            int index = this.availableFilesView.getSelectionModel().getSelectedIndex();
+            if (index >= 0 && this.availableFiles.get(index).equals(file)) {
+                if (index + 1 < this.availableFiles.size()) {
+                    wanted.add(this.availableFiles.get(index + 1));
+                }
+                if (index > 0) {
+                    wanted.add(this.availableFiles.get(index - 1));
+                }
             }
+        }
+        // Loads for entries that are no longer selected (or next to the selection) are stale
+        this.thumbnails.cancelAllBut(wanted);
+
+        if (file == null) {
+            displayInViewPort(emptyImage);
+            return;
+        }
+
+        Image img = this.thumbnails.getIfLoaded(file);
+        if (img != null) {
+            displayInViewPort(img);
         } else {
-            img = emptyImage;
+            displayInViewPort(emptyImage);
+            this.thumbnails.load(file).thenAccept(loaded -> Platform.runLater(() -> {
+                // Unless another image was displayed in the meantime
+                if (file.equals(this.displayedFile)) {
+                    displayInViewPort(loaded != null ? loaded : brokenImage);
+                }
+            }));
+        }
+
+        // Prefetch the neighbours
+        for (Path neighbour : wanted.subList(1, wanted.size())) {
+            this.thumbnails.load(neighbour);
+        }
+    }
+
+    /**
+     * Helper method to read the metadata shown with an entry: its file size, and its image
+     * dimensions (read from the image header, without decoding the image)
+     *
+     * @param file The file path
+     *
+     * @return the metadata
+     */
+    private static String readMetadata(Path file) {
+        String size;
+        try {
+            size = String.format("%.1f KB", Files.size(file) / 1024.0);
+        } catch (IOException e) {
+            return "unreadable";
+        }
+
+        try (ImageInputStream inputStream = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+            if (readers.hasNext()) {
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(inputStream, true, true);
+                    return size + ", " + reader.getWidth(0) + "x" + reader.getHeight(0);
+                } finally {
+                    reader.dispose();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // The viewport shows the broken image
         }
-        // Display the image obtained from the file
-        displayInViewPort(img);
+        return size;
     }
 
     /**
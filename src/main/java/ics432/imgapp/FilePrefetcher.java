@@ -0,0 +1,185 @@
+package ics432.imgapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A helper class that reads input files into memory asynchronously (with an
+ * AsynchronousFileChannel), ahead of the reader threads that decode them, so that
+ * I/O latency overlaps with decoding and processing. Reads are started in order by a
+ * single prefetcher thread, so that threads that prefetch files (e.g., the JobScheduler's
+ * dispatcher) never wait for I/O, and the number of outstanding reads (i.e., reads in
+ * progress) is bounded. The memory of the files read but not taken yet is part of their
+ * work units' footprints (see MemoryBudget).
+ *
+ * A prefetched file that will never be taken (e.g., its unit failed or was dropped)
+ * should be discarded, so that it isn't read if its read hasn't started yet.
+ */
+class FilePrefetcher {
+
+    private static int maxOutstandingReads = 2;
+    private static int outstandingReads = 0;
+
+    // The thread that starts reads, in the order in which files were prefetched
+    private static final ExecutorService prefetcher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "File prefetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Method to set the maximum number of outstanding reads
+     *
+     * @param max The maximum number of outstanding reads
+     */
+    static synchronized void setMaxOutstandingReads(int max) {
+        maxOutstandingReads = max;
+        FilePrefetcher.class.notifyAll();
+    }
+
+    /**
+     * Method to have a file read (without waiting). The bytes must then be taken with
+     * take(), or discarded with discard().
+     *
+     * @param file   The file path
+     * @param needed Whether the file must still be read, checked by the prefetcher thread
+     *               right before it starts the read (if not, the bytes are null)
+     *
+     * @return the future bytes of the file
+     */
+    static CompletableFuture<byte[]> prefetch(Path file, BooleanSupplier needed) {
+        CompletableFuture<byte[]> bytes = new CompletableFuture<>();
+        prefetcher.execute(() -> startRead(file, needed, bytes));
+        return bytes;
+    }
+
+    /**
+     * Method to wait for the bytes of a prefetched file
+     *
+     * @param bytes The future bytes returned by prefetch()
+     *
+     * @return the bytes of the file, or null if it didn't need to be read
+     *
+     * @throws IOException if the file could not be read
+     */
+    static byte[] take(CompletableFuture<byte[]> bytes) throws IOException {
+        try {
+            return bytes.get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading file", e);
+        }
+    }
+
+    /**
+     * Method to discard a prefetched file whose bytes will never be taken (its read is
+     * skipped if it hasn't started yet)
+     *
+     * @param bytes The future bytes returned by prefetch()
+     */
+    static void discard(CompletableFuture<byte[]> bytes) {
+        bytes.cancel(false);
+    }
+
+    /**
+     * Helper method to start reading a file, once fewer than the maximum number of reads
+     * are outstanding (run by the prefetcher thread)
+     */
+    private static void startRead(Path file, BooleanSupplier needed, CompletableFuture<byte[]> bytes) {
+        // The file may have been discarded, or may have been decoded in the meantime
+        if (bytes.isDone()) {
+            return;
+        }
+        if (!needed.getAsBoolean()) {
+            bytes.complete(null);
+            return;
+        }
+
+        synchronized (FilePrefetcher.class) {
+            while (outstandingReads >= maxOutstandingReads) {
+                try {
+                    FilePrefetcher.class.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            outstandingReads++;
+        }
+
+        try {
+            AsynchronousFileChannel channel = AsynchronousFileChannel.open(file, StandardOpenOption.READ);
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                channel.close();
+                throw new IOException("File too large to be read in memory");
+            }
+            readFrom(channel, ByteBuffer.allocate((int) size), bytes);
+        } catch (IOException e) {
+            bytes.completeExceptionally(e);
+            endRead();
+        }
+    }
+
+    /**
+     * Helper method to end an outstanding read, so that another file can be read
+     */
+    private static synchronized void endRead() {
+        outstandingReads--;
+        FilePrefetcher.class.notifyAll();
+    }
+
+    /**
+     * Helper method to read a channel into a buffer (with as many asynchronous reads
+     * as needed), and to close the channel (and end the outstanding read) once the
+     * buffer is full
+     */
+    private static void readFrom(AsynchronousFileChannel channel, ByteBuffer buffer, CompletableFuture<byte[]> bytes) {
+        if (!buffer.hasRemaining()) {
+            close(channel);
+            bytes.complete(buffer.array());
+            endRead();
+            return;
+        }
+        channel.read(buffer, buffer.position(), null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer count, Void attachment) {
+                if (count < 0) {
+                    close(channel);
+                    bytes.completeExceptionally(new IOException("Unexpected end of file"));
+                    endRead();
+                } else {
+                    readFrom(channel, buffer, bytes);
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, Void attachment) {
+                close(channel);
+                bytes.completeExceptionally(e);
+                endRead();
+            }
+        });
+    }
+
+    /**
+     * Helper method to close a channel
+     */
+    private static void close(AsynchronousFileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignore) {
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package ics432.imgapp;
+
+import java.awt.RenderingHints;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ColorModel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A filter that applies a sequence of filters (a chain such as "Median|Solarize|Invert")
+ * to an image in a single pass, i.e., without encoding/decoding the image between
+ * filters. Intermediate images ping-pong between two buffers, so that at most two
+ * images are allocated no matter how long the chain is.
+ */
+public class FilterChain implements BufferedImageOp {
+
+    // The separator between filter names in a chain
+    public static final String SEPARATOR = "|";
+
+    private final List<BufferedImageOp> stages;
+
+    /**
+     * Constructor
+     *
+     * @param stages The filters to apply, in order (they must all preserve the image size)
+     */
+    public FilterChain(List<BufferedImageOp> stages) {
+        this.stages = new ArrayList<>(stages);
+    }
+
+    /**
+     * Method to split a filter chain into filter names
+     *
+     * @param filterName The filter chain (or a single filter name)
+     *
+     * @return the (trimmed) names of the filters in the chain
+     */
+    public static List<String> split(String filterName) {
+        List<String> names = new ArrayList<>();
+        for (String name : filterName.split("\\" + SEPARATOR, -1)) {
+            names.add(name.trim());
+        }
+        return names;
+    }
+
+    /**
+     * Method to get a name for a filter chain that can be used in a file name
+     *
+     * @param filterName The filter chain (or a single filter name)
+     *
+     * @return the file name prefix
+     */
+    public static String toFilePrefix(String filterName) {
+        return filterName.replace(SEPARATOR, "-");
+    }
+
+    public BufferedImage filter(BufferedImage inputImg, BufferedImage outputImg) {
+        if (this.stages.isEmpty()) {
+            throw new IllegalStateException("Empty filter chain");
+        }
+
+        // The two buffers, allocated by the first stages that write into them
+        BufferedImage[] buffers = new BufferedImage[2];
+
+        BufferedImage src = inputImg;
+        for (int i = 0; i < this.stages.size(); i++) {
+            // The last stage writes into the output image (if any)
+            BufferedImage dst = (i == this.stages.size() - 1 && outputImg != null) ? outputImg : buffers[i % 2];
+            dst = this.stages.get(i).filter(src, dst);
+            buffers[i % 2] = dst;
+            src = dst;
+        }
+        return src;
+    }
+
+    @Override
+    public BufferedImage createCompatibleDestImage(BufferedImage arg0, ColorModel arg1) {
+        return null;
+    }
+
+    @Override
+    public Rectangle2D getBounds2D(BufferedImage arg0) {
+        return null;
+    }
+
+    @Override
+    public Point2D getPoint2D(Point2D arg0, Point2D arg1) {
+        return null;
+    }
+
+    @Override
+    public RenderingHints getRenderingHints() {
+        return null;
+    }
+}
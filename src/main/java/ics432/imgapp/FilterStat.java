@@ -4,37 +4,86 @@ import javafx.scene.text.Text;
 
 public class FilterStat {
 
+    // The length (in seconds) of the window of the rolling average
+    static final int WINDOW_SECONDS = 60;
+
     private long byteTotal;
 
     // Milliseconds.
     private long timeTotal;
     private double averageTime;
     private final String key;
-    private final Text averageTimeText;
+    // The bytes and times of the last WINDOW_SECONDS seconds, in one-second buckets
+    // (bucket i holds second windowSeconds[i], since the epoch)
+    private final long[] windowBytes = new long[WINDOW_SECONDS];
+    private final long[] windowTimes = new long[WINDOW_SECONDS];
+    private final long[] windowSeconds = new long[WINDOW_SECONDS];
+    // The text shown by the StatisticsWindow, created on demand (creating it starts the JavaFX toolkit)
+    private Text averageTimeText;
 
     public FilterStat(String key) {
         byteTotal = 0;
         timeTotal = 0;
         this.key = key;
-        averageTimeText = new Text(Double.toString(averageTime));
         updateAverageTime(byteTotal, timeTotal);
     }
 
     public synchronized void updateAverageTime(long bytes, long time) {
         byteTotal += bytes;
         timeTotal += time;
+        long second = System.currentTimeMillis() / 1000;
+        int i = (int) (second % WINDOW_SECONDS);
+        if (windowSeconds[i] != second) {
+            windowSeconds[i] = second;
+            windowBytes[i] = 0;
+            windowTimes[i] = 0;
+        }
+        windowBytes[i] += bytes;
+        windowTimes[i] += time;
         updateAverageTimeMb();
         setAverageTimeText();
     }
 
     private void setAverageTimeText() {
-        averageTimeText.setText(textToString(key, averageTime));
+        if (averageTimeText != null) {
+            averageTimeText.setText(textToString(key, averageTime));
+        }
     }
 
-    public Text getAverageTimeText() {
+    public synchronized Text getAverageTimeText() {
+        if (averageTimeText == null) {
+            averageTimeText = new Text(textToString(key, averageTime));
+        }
         return averageTimeText;
     }
 
+    /**
+     * Get the average throughput since the application started
+     *
+     * @return the throughput, in MB/s
+     */
+    public synchronized double getAverageTime() {
+        return averageTime;
+    }
+
+    /**
+     * Get the average throughput over the last WINDOW_SECONDS seconds
+     *
+     * @return the throughput, in MB/s (or 0 if nothing was processed in the window)
+     */
+    public synchronized double getRollingAverageTime() {
+        long second = System.currentTimeMillis() / 1000;
+        long bytes = 0;
+        long time = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            if (second - windowSeconds[i] < WINDOW_SECONDS) {
+                bytes += windowBytes[i];
+                time += windowTimes[i];
+            }
+        }
+        return time == 0 ? 0 : (bytes / 1048576.0) / (time / 1000.0);
+    }
+
     private String textToString(String filter, double averageTime) {
         return filter + ": " + Double.toString(averageTime) + " [mb/s]";
     }
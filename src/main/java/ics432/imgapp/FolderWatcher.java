@@ -0,0 +1,312 @@
+package ics432.imgapp;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A class that watches input directories (with a WatchService) and sends each new JPEG
+ * file to the pipeline, as a work unit of a job that never ends. A file is only sent
+ * once it is complete, i.e., once its size and modification time haven't changed for
+ * STABLE_MS. Files that are written under a temporary name and then renamed are thus
+ * sent shortly after the rename. Files that were already in the directories are sent
+ * if their output file is missing or older than them.
+ *
+ * Memory stays bounded: outcomes are counted rather than kept, and at most
+ * MAX_SUBMITTED files are submitted but not done yet (the others wait as candidates).
+ * The throughput is reported every reporting period.
+ */
+class FolderWatcher {
+
+    // The time (in milliseconds) a file must stay unchanged to be considered complete
+    static final long STABLE_MS = 1000;
+    // The period (in milliseconds) at which candidate files are checked
+    private static final long POLL_MS = 250;
+    // The maximum number of files submitted to the scheduler but not done yet
+    private static final int MAX_SUBMITTED = 1024;
+
+    private final List<Path> inputDirs;
+    private final Path targetDir;
+    private final WatchJob job;
+    private final JobScheduler scheduler;
+    private final AppStats appStats;
+    private final long reportPeriodMs;
+    private final String outputPrefix;
+
+    // The files that may not be complete yet, in order of arrival
+    private final Map<Path, Candidate> candidates = new LinkedHashMap<>();
+
+    /**
+     * A helper nested class for a file that may not be complete yet
+     */
+    private static class Candidate {
+        long size;
+        long modifiedTime;
+        // The time at which the size or modification time last changed
+        long changedTime;
+
+        Candidate(long size, long modifiedTime, long now) {
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+            this.changedTime = now;
+        }
+    }
+
+    /**
+     * A job that never ends, whose work units are the watched files. It only counts
+     * its outcomes (failures are printed).
+     */
+    private static class WatchJob extends Job {
+        private int numSubmitted = 0;
+        private int numWritten = 0;
+        private int numFailed = 0;
+
+        WatchJob(String filterName, Path targetDir, AppStats appStats, JobScheduler scheduler,
+                 boolean inProcess, boolean simd, boolean streaming) {
+            super(filterName, targetDir, List.of(), null, appStats, scheduler, inProcess, simd, streaming);
+        }
+
+        @Override
+        synchronized void workUnitWritten(Path inputFile, Path outputFile) {
+            this.numWritten++;
+        }
+
+        @Override
+        synchronized void workUnitFailed(Path inputFile, Exception error) {
+            this.numFailed++;
+            System.err.println(inputFile + ": " + error.getMessage());
+        }
+
+        synchronized int getNumPending() {
+            return this.numSubmitted - this.numWritten - this.numFailed;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param inputDirs      The directories to watch
+     * @param targetDir      The directory in which to write output images
+     * @param filterName     The filter (or chain of filters) to apply
+     * @param appStats       The statistics to update (and report)
+     * @param scheduler      The scheduler that sends work units to the pipeline
+     * @param inProcess      Whether the external (C) filters should be replaced by their Java ports
+     * @param simd           Whether filters should use their SIMD kernels (when available)
+     * @param streaming      Whether images should be streamed through the filter (when it can be)
+     * @param reportPeriodMs The period (in milliseconds) at which the throughput is reported
+     */
+    FolderWatcher(List<Path> inputDirs, Path targetDir, String filterName, AppStats appStats,
+                  JobScheduler scheduler, boolean inProcess, boolean simd, boolean streaming, long reportPeriodMs) {
+        this.inputDirs = inputDirs;
+        this.targetDir = targetDir;
+        this.scheduler = scheduler;
+        this.appStats = appStats;
+        this.reportPeriodMs = reportPeriodMs;
+        this.outputPrefix = FilterChain.toFilePrefix(filterName) + "_";
+        this.job = new WatchJob(filterName, targetDir, appStats, scheduler, inProcess, simd, streaming);
+    }
+
+    /**
+     * Method to watch the input directories, forever (or until the thread is interrupted)
+     *
+     * @throws IOException if a directory cannot be watched
+     */
+    void run() throws IOException {
+        try (WatchService watchService = this.inputDirs.get(0).getFileSystem().newWatchService()) {
+            for (Path dir : this.inputDirs) {
+                dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                System.out.println("Watching " + dir.toAbsolutePath());
+            }
+
+            // Files that were added while the application wasn't running
+            for (Path dir : this.inputDirs) {
+                scanDirectory(dir);
+            }
+
+            long nextReport = System.currentTimeMillis() + this.reportPeriodMs;
+            int lastWritten = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    Path dir = (Path) key.watchable();
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            // Events were lost: look at the whole directory again
+                            scanDirectory(dir);
+                        } else {
+                            addCandidate(dir.resolve((Path) event.context()));
+                        }
+                    }
+                    key.reset();
+                }
+
+                submitCompleteFiles();
+
+                long now = System.currentTimeMillis();
+                if (now >= nextReport) {
+                    lastWritten = report(lastWritten, now - nextReport + this.reportPeriodMs);
+                    nextReport = now + this.reportPeriodMs;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stop watching
+        }
+    }
+
+    /**
+     * Helper method to add the JPEG files of a directory whose output file is missing
+     * or out of date to the candidates
+     *
+     * @param dir The directory
+     */
+    private void scanDirectory(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                if (isUpToDate(file)) {
+                    continue;
+                }
+                addCandidate(file);
+            }
+        }
+    }
+
+    /**
+     * Helper method to check whether the output file of an input file is newer than it
+     */
+    private boolean isUpToDate(Path file) {
+        Path outputFile = this.targetDir.resolve(this.outputPrefix + file.getFileName());
+        try {
+            return Files.getLastModifiedTime(outputFile).compareTo(Files.getLastModifiedTime(file)) >= 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Helper method to check whether a directory is the target directory
+     */
+    private boolean isOutputDir(Path dir) {
+        try {
+            return Files.isSameFile(dir, this.targetDir);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Helper method to add a file to the candidates (or to note that it has changed)
+     *
+     * @param file The file
+     */
+    private void addCandidate(Path file) {
+        String name = file.getFileName().toString();
+        String lowerCaseName = name.toLowerCase();
+        // Skip hidden (often temporary) files, non-JPEG files, and output files (if written in a watched directory)
+        if (name.startsWith(".") || !(lowerCaseName.endsWith(".jpg") || lowerCaseName.endsWith(".jpeg")) ||
+                (name.startsWith(this.outputPrefix) && isOutputDir(file.getParent()))) {
+            return;
+        }
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            // The file is gone already
+            return;
+        }
+        if (!attributes.isRegularFile()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Candidate candidate = this.candidates.get(file);
+        if (candidate == null) {
+            this.candidates.put(file, new Candidate(attributes.size(), attributes.lastModifiedTime().toMillis(), now));
+        } else {
+            candidate.changedTime = now;
+        }
+    }
+
+    /**
+     * Helper method to submit the candidates that are complete, i.e., unchanged for STABLE_MS
+     */
+    private void submitCompleteFiles() {
+        long now = System.currentTimeMillis();
+        List<WorkUnit> units = new ArrayList<>();
+        int room = MAX_SUBMITTED - this.job.getNumPending();
+
+        Iterator<Map.Entry<Path, Candidate>> it = this.candidates.entrySet().iterator();
+        while (it.hasNext() && units.size() < room) {
+            Map.Entry<Path, Candidate> entry = it.next();
+            Candidate candidate = entry.getValue();
+
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(entry.getKey(), BasicFileAttributes.class);
+            } catch (IOException e) {
+                // The file was deleted (or renamed) before it was complete
+                it.remove();
+                continue;
+            }
+            long modifiedTime = attributes.lastModifiedTime().toMillis();
+            if (attributes.size() != candidate.size || modifiedTime != candidate.modifiedTime) {
+                candidate.size = attributes.size();
+                candidate.modifiedTime = modifiedTime;
+                candidate.changedTime = now;
+            } else if (now - candidate.changedTime >= STABLE_MS && candidate.size > 0) {
+                it.remove();
+                units.add(this.job.createWorkUnit(entry.getKey()));
+            }
+        }
+
+        if (!units.isEmpty()) {
+            synchronized (this.job) {
+                this.job.numSubmitted += units.size();
+            }
+            this.scheduler.submit(this.job, units);
+        }
+    }
+
+    /**
+     * Helper method to report the throughput
+     *
+     * @param lastWritten The number of files written at the previous report
+     * @param periodMs    The time since the previous report
+     *
+     * @return the number of files written
+     */
+    private int report(int lastWritten, long periodMs) {
+        int written;
+        int failed;
+        int pending;
+        synchronized (this.job) {
+            written = this.job.numWritten;
+            failed = this.job.numFailed;
+            pending = this.job.getNumPending();
+        }
+        FilterStat stat = this.appStats.getFilterStat(this.job.getFilterName());
+        System.out.printf("%d written (%.2f images/s), %d failed, %d in progress, %d waiting; " +
+                        "%s: %.2f MB/s (last %ds), %.2f MB/s (overall)%n",
+                written, (written - lastWritten) * 1000.0 / periodMs, failed, pending, this.candidates.size(),
+                this.job.getFilterName(), stat.getRollingAverageTime(), FilterStat.WINDOW_SECONDS,
+                stat.getAverageTime());
+        if (OutputCache.isEnabled()) {
+            System.out.println("Output cache: " + OutputCache.getSummary());
+        }
+        return written;
+    }
+}
@@ -0,0 +1,266 @@
+package ics432.imgapp;
+
+import java.awt.RenderingHints;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ColorModel;
+import java.util.Arrays;
+
+/**
+ * A data-parallel median filter with a configurable (square) window, based on the
+ * constant-time median filtering scheme of Perreault and Hebert: one 256-bin
+ * histogram is kept per image column and slid down the image, and the kernel
+ * histogram is slid along each row by adding/subtracting column histograms.
+ * Histograms are two-level (16 coarse bins of 16 fine bins each), and the fine
+ * bins of the kernel histogram are only brought up to date for the coarse bin
+ * that contains the median, so the cost per pixel does not grow with the radius.
+ *
+ * The output is the same as MedianFilter's for a 3x3 window: samples are ranked as
+ * (signed) Java bytes, i.e., channel values 128-255 rank before values 0-127 (the
+ * histograms are indexed by the value with its top bit flipped), at the image border
+ * the window is clipped to the image and the upper median of the remaining samples is
+ * picked, and the output alpha is always 0.
+ *
+ * Each task allocates its own column histograms (3 x (256 + 16) counters per column),
+ * and must first fill them with a full window, so rows are split in one contiguous
+ * chunk per thread of the DPThreadPool rather than in many small bands.
+ */
+public class HistogramMedianFilter implements BufferedImageOp {
+
+    private final int radius;
+
+    /**
+     * Constructor (rows are processed by the shared DPThreadPool)
+     *
+     * @param windowSize The width (and height) of the window, in pixels (an odd number)
+     */
+    public HistogramMedianFilter(int windowSize) {
+        if (windowSize < 1 || windowSize > 65535 || windowSize % 2 == 0) {
+            throw new IllegalArgumentException("Invalid median window size " + windowSize);
+        }
+        this.radius = windowSize / 2;
+    }
+
+    public BufferedImage filter(BufferedImage inputImg, BufferedImage outputImg) {
+        int width = inputImg.getWidth();
+        int height = inputImg.getHeight();
+
+        // If second argument is null, then filter() method allocates the output image object, otherwise is uses the one passed in.
+        if (outputImg == null) {
+            // allocate the output image object
+            outputImg = new BufferedImage(width, height, inputImg.getType());
+        }
+
+        // process one chunk of rows of the picture per thread of the shared pool
+        BufferedImage output = outputImg;
+        DPThreadPool.processChunks(height, (start, stop) -> new Task(inputImg, output, start, stop).run());
+
+        return outputImg;
+    }
+
+    class Task implements Runnable {
+        private final BufferedImage input, output;
+        private final int width, height, start, stop;
+
+        // Per-column histograms, for each channel: fine (256 bins) and coarse (16 bins).
+        // 16-bit counters halve the memory traffic (the window height is at most 65535)
+        private final char[][] colFine = new char[3][];
+        private final char[][] colCoarse = new char[3][];
+        // Kernel histograms, for each channel
+        private final int[][] kernelFine = new int[3][256];
+        private final int[][] kernelCoarse = new int[3][16];
+        // For each channel and coarse bin, the column at which the kernel's fine bins were last updated
+        private final int[][] lastUpdated = new int[3][16];
+
+        public Task(BufferedImage input, BufferedImage output, int start, int stop) {
+            this.input = input;
+            this.output = output;
+            this.width = input.getWidth();
+            this.height = input.getHeight();
+            this.start = start;
+            this.stop = stop;
+        }
+
+        public void run() {
+            if (this.start >= this.stop) {
+                return;
+            }
+
+            // Get the source rows (directly from the image if possible)
+            int[] src = RasterAccess.intPixels(this.input);
+            int srcY0 = 0;
+            if (src == null) {
+                srcY0 = Math.max(0, this.start - radius);
+                int srcY1 = Math.min(this.height, this.stop + radius);
+                src = this.input.getRGB(0, srcY0, this.width, srcY1 - srcY0, null, 0, this.width);
+            }
+
+            // Get the destination rows (directly in the image if possible)
+            int[] dst = RasterAccess.intPixels(this.output);
+            boolean isDirect = dst != null;
+            int dstY0 = 0;
+            if (!isDirect) {
+                dstY0 = this.start;
+                dst = new int[(this.stop - this.start) * this.width];
+            }
+
+            for (int c = 0; c < 3; c++) {
+                this.colFine[c] = new char[this.width * 256];
+                this.colCoarse[c] = new char[this.width * 16];
+            }
+
+            // Initialize column histograms with the window rows of the first row
+            for (int y = Math.max(0, this.start - radius); y <= Math.min(this.height - 1, this.start + radius); y++) {
+                updateColumns(src, srcY0, y, 1);
+            }
+
+            for (int y = this.start; y < this.stop; y++) {
+                if (y > this.start) {
+                    // Slide the column histograms down by one row
+                    if (y - radius - 1 >= 0) {
+                        updateColumns(src, srcY0, y - radius - 1, -1);
+                    }
+                    if (y + radius < this.height) {
+                        updateColumns(src, srcY0, y + radius, 1);
+                    }
+                }
+                int numRows = Math.min(this.height - 1, y + radius) - Math.max(0, y - radius) + 1;
+                filterRow(src, srcY0, dst, dstY0, y, numRows);
+            }
+
+            if (!isDirect) {
+                this.output.setRGB(0, this.start, this.width, this.stop - this.start, dst, 0, this.width);
+            }
+        }
+
+        /**
+         * Helper method to add (or remove) an image row to (from) the column histograms
+         */
+        private void updateColumns(int[] src, int srcY0, int y, int delta) {
+            int row = (y - srcY0) * this.width;
+            for (int x = 0; x < this.width; x++) {
+                int p = src[row + x];
+                for (int c = 0; c < 3; c++) {
+                    // Flipping the top bit turns the signed byte order into the histogram order
+                    int v = ((p >> (16 - 8 * c)) & 0xFF) ^ 0x80;
+                    this.colFine[c][(x << 8) + v] += delta;
+                    this.colCoarse[c][(x << 4) + (v >> 4)] += delta;
+                }
+            }
+        }
+
+        /**
+         * Helper method to compute one output row by sliding the kernel histogram along it
+         */
+        private void filterRow(int[] src, int srcY0, int[] dst, int dstY0, int y, int numRows) {
+            int out = (y - dstY0) * this.width;
+            int in = (y - srcY0) * this.width;
+
+            for (int c = 0; c < 3; c++) {
+                Arrays.fill(this.kernelCoarse[c], 0);
+                Arrays.fill(this.lastUpdated[c], Integer.MIN_VALUE / 2);
+                // Start with the columns left of the first window's right edge
+                for (int x = 0; x < Math.min(this.width, radius); x++) {
+                    addCoarse(c, x, 1);
+                }
+            }
+
+            for (int x = 0; x < this.width; x++) {
+                int numCols = Math.min(this.width - 1, x + radius) - Math.max(0, x - radius) + 1;
+                int rank = (numRows * numCols) / 2;
+                int pixel = 0;
+
+                for (int c = 0; c < 3; c++) {
+                    // Slide the coarse kernel histogram right by one column
+                    if (x + radius < this.width) {
+                        addCoarse(c, x + radius, 1);
+                    }
+                    if (x - radius - 1 >= 0) {
+                        addCoarse(c, x - radius - 1, -1);
+                    }
+                    pixel |= (median(c, x, rank) ^ 0x80) << (16 - 8 * c);
+                }
+                dst[out + x] = pixel;
+            }
+        }
+
+        private void addCoarse(int c, int col, int delta) {
+            int[] kernel = this.kernelCoarse[c];
+            char[] column = this.colCoarse[c];
+            int base = col << 4;
+            for (int i = 0; i < 16; i++) {
+                kernel[i] += delta * column[base + i];
+            }
+        }
+
+        private void addFine(int c, int col, int bin, int delta) {
+            int[] kernel = this.kernelFine[c];
+            char[] column = this.colFine[c];
+            int base = (col << 8) + (bin << 4);
+            for (int i = 0; i < 16; i++) {
+                kernel[(bin << 4) + i] += delta * column[base + i];
+            }
+        }
+
+        /**
+         * Helper method to find the value of the given rank in the kernel histogram of a channel
+         */
+        private int median(int c, int x, int rank) {
+            int[] coarse = this.kernelCoarse[c];
+            int bin = 0;
+            while (rank >= coarse[bin]) {
+                rank -= coarse[bin];
+                bin++;
+            }
+
+            // Bring the fine bins of that coarse bin up to date with the current window
+            int last = this.lastUpdated[c][bin];
+            if (x - last > radius) {
+                Arrays.fill(this.kernelFine[c], bin << 4, (bin << 4) + 16, 0);
+                for (int col = Math.max(0, x - radius); col <= Math.min(this.width - 1, x + radius); col++) {
+                    addFine(c, col, bin, 1);
+                }
+            } else {
+                for (int j = last + 1; j <= x; j++) {
+                    if (j + radius < this.width) {
+                        addFine(c, j + radius, bin, 1);
+                    }
+                    if (j - radius - 1 >= 0) {
+                        addFine(c, j - radius - 1, bin, -1);
+                    }
+                }
+            }
+            this.lastUpdated[c][bin] = x;
+
+            int[] fine = this.kernelFine[c];
+            int value = bin << 4;
+            while (rank >= fine[value]) {
+                rank -= fine[value];
+                value++;
+            }
+            return value;
+        }
+    }
+
+    @Override
+    public BufferedImage createCompatibleDestImage(BufferedImage arg0, ColorModel arg1) {
+        return null;
+    }
+
+    @Override
+    public Rectangle2D getBounds2D(BufferedImage arg0) {
+        return null;
+    }
+
+    @Override
+    public Point2D getPoint2D(Point2D arg0, Point2D arg1) {
+        return null;
+    }
+
+    @Override
+    public RenderingHints getRenderingHints() {
+        return null;
+    }
+}
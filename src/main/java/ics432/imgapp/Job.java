@@ -1,8 +1,5 @@
 package ics432.imgapp;
 
-import javafx.scene.control.*;
-import javafx.application.Platform;
-
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -20,96 +17,97 @@ class Job extends Thread {
     private final String filterName;
     private final Path targetDir;
     private final List<Path> inputFiles;
-    private final JobWindow gui;
+    private final JobListener listener;
     protected long processingTime;
     protected long writingTime;
     protected long readingTime;
     private long executingTime;
     private boolean shouldRun = true;
-    private boolean canceled = false;
+    private volatile boolean canceled = false;
 
     private final AppStats appStats;
-    private ProducerConsumer readBuffer;
+    private final JobScheduler scheduler;
+    private int priority = 1;
+    private int maxInFlight = Integer.MAX_VALUE;
+    private final boolean inProcess;
+    private final boolean simd;
+    private final boolean streaming;
     private int jobsWritten = 0;
+    // The number of work units dropped without an outcome, since the job was canceled
+    private int jobsDropped = 0;
 
-    // The list of outcomes for each input file
-    private final List<ImgTransformOutcome> outcome;
+    // The outcomes of the input files, in the order in which they were done
+    private final OutcomeStream outcome;
 
     /**
      * Constructor
      *
-     * @param filterName The imgTransform to apply to input images
+     * @param filterName The imgTransform (or chain of imgTransforms, e.g., "Median|Invert") to apply to input images
      * @param targetDir  The target directory in which to generate output images
      * @param inputFiles The list of input file paths
+     * @param listener   The listener that follows the job's progress (a JobWindow, or the console)
+     * @param scheduler  The scheduler that sends the job's work units to the pipeline
+     * @param inProcess  Whether the external (C) filters should be replaced by their Java ports
+     * @param simd       Whether filters should use their SIMD kernels (when available)
+     * @param streaming  Whether images should be streamed through the filter (when it can be)
      */
-    Job(String filterName, Path targetDir, List<Path> inputFiles, JobWindow gui, AppStats appStats,
-            ProducerConsumer readBuffer) {
+    Job(String filterName, Path targetDir, List<Path> inputFiles, JobListener listener, AppStats appStats,
+            JobScheduler scheduler, boolean inProcess, boolean simd, boolean streaming) {
 
         this.filterName = filterName;
         this.targetDir = targetDir;
         this.inputFiles = inputFiles;
-        this.gui = gui;
+        this.listener = listener;
         this.appStats = appStats;
-        this.readBuffer = readBuffer;
+        this.scheduler = scheduler;
+        this.inProcess = inProcess;
+        this.simd = simd;
+        this.streaming = streaming;
 
-        this.outcome = new ArrayList<>();
+        this.outcome = new OutcomeStream();
     }
 
     //Method must override run, runs in new thread when start is called
 
     @Override
     public void run() {
-        gui.enableCancel();
+        this.listener.jobStarted(this);
 
         // Always run multi threading option
         executeMultiThread();
-        
-        gui.enableClose();
-        gui.disableCancel();
-
-        // if job is canceled, display canceled pop up
-        if (canceled) {
-            Platform.runLater(() -> {
-                Alert alert = new Alert(Alert.AlertType.INFORMATION);
-                alert.setTitle("CANCELED");
-                alert.setHeaderText(null);
-                alert.setContentText("Job has been canceled.");
-                alert.showAndWait();
-            });
-        } else {
 
-            // platform.runlater to display window for process time
-            Platform.runLater(() -> {
-                Alert alert = new Alert(Alert.AlertType.INFORMATION);
-                alert.setTitle("Process Time");
-                alert.setHeaderText(null);
-                alert.setContentText(
-                        "Reading Time: " + readingTime / 1000.0 + "s\nProcessing Time: " + processingTime / 1000.0
-                                + "s\nWriting Time: " + writingTime / 1000.0 + "s\nTotal Job Execution Time: "
-                                + executingTime / 1000.0 + "s");
-                alert.showAndWait();
-            });
+        // The job only counts as canceled if the cancellation dropped some of its work units
+        boolean dropped;
+        synchronized (this) {
+            dropped = this.jobsDropped > 0;
         }
-
+        this.listener.jobFinished(this, dropped);
     }
 
     void executeMultiThread() {
         System.err.println("Running MultiThreading execution");
 
-        gui.setJobProgressBarVisible(true);
-        
         long startTime = System.currentTimeMillis();
-        // Add Paths to readBuffer before multi-threading begins.
-        if(this.filterName == "DPEdge" || this.filterName == "DPFunk1" ||  this.filterName == "DPFunk2"){
-            inputFiles.forEach(inputFile -> this.readBuffer.put(new WorkUnitExternal(inputFile, targetDir, filterName, appStats, this)));
+        // Submit the work units to the scheduler, which sends them to the pipeline
+        List<WorkUnit> units = new ArrayList<>();
+        for (Path inputFile : inputFiles) {
+            units.add(createWorkUnit(inputFile));
         }
-        else {
-            inputFiles.forEach(inputFile -> this.readBuffer.put(new WorkUnit(inputFile, targetDir, filterName, appStats, this)));
+        synchronized (this) {
+            // The job may have been canceled in the meantime (see cancel())
+            if (this.canceled) {
+                this.jobsDropped += units.size();
+            } else {
+                this.scheduler.submit(this, units);
+            }
         }
 
+        // Wait until all work units have been written or dropped (there may be several writer threads)
         synchronized(this) {
             try {
-                this.wait();
+                while (this.jobsWritten + this.jobsDropped < this.inputFiles.size()) {
+                    this.wait();
+                }
             } catch (InterruptedException e) {
                 // TODO Auto-generated catch block
                 e.printStackTrace();
@@ -117,17 +115,162 @@ class Job extends Thread {
         }
 
         this.executingTime = System.currentTimeMillis() - startTime;
-
-        // Make Job progressBar invisible
-        gui.setJobProgressBarVisible(false);
         shouldRun = false;
     }
 
     /**
-     * Get the JobWindow
+     * Method to create the work unit of an input file: an external, streaming or regular work
+     * unit, depending on the filter and on the job's options
+     *
+     * @param inputFile The input file path
+     * @return the work unit
+     */
+    WorkUnit createWorkUnit(Path inputFile) {
+        boolean external = !this.inProcess && WorkUnit.EXTERNAL_FILTER_NAMES.contains(this.filterName);
+        if (external) {
+            return new WorkUnitExternal(inputFile, targetDir, filterName, appStats, this);
+        } else if (this.streaming && WorkUnitStreaming.getHalo(this.filterName) >= 0) {
+            return new WorkUnitStreaming(inputFile, targetDir, filterName, appStats, this);
+        } else {
+            return new WorkUnit(inputFile, targetDir, filterName, appStats, this);
+        }
+    }
+
+    /**
+     * Method to cancel the job: its work units that haven't been sent to the pipeline are
+     * withdrawn from the scheduler, and those in the pipeline are dropped by the next stage
+     * that takes them (see dropIfCanceled()), so that the job finishes as soon as the units
+     * being read, processed or written are done
+     */
+    void cancel() {
+        this.canceled = true;
+        int dropped = this.scheduler.cancel(this);
+        synchronized (this) {
+            this.jobsDropped += dropped;
+            // notifyAll, since threads that join the job also wait on it
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Method called by a stage before it handles a work unit of this job: if the job has been
+     * canceled, the unit leaves the pipeline without an outcome
+     *
+     * @param unit The work unit
+     *
+     * @return true if the unit was dropped
+     */
+    boolean dropIfCanceled(WorkUnit unit) {
+        if (!this.canceled) {
+            return false;
+        }
+        unit.release();
+        workUnitReleased();
+        synchronized (this) {
+            this.jobsDropped++;
+            this.notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Get the name of the filter (or of the chain of filters) applied by the job
+     */
+    String getFilterName() {
+        return this.filterName;
+    }
+
+    /**
+     * Get the number of input files
+     */
+    int getNumInputFiles() {
+        return this.inputFiles.size();
+    }
+
+    /**
+     * Get the total time (in milliseconds) spent reading the job's images
+     */
+    long getReadingTime() {
+        return this.readingTime;
+    }
+
+    /**
+     * Get the total time (in milliseconds) spent processing the job's images
+     */
+    long getProcessingTime() {
+        return this.processingTime;
+    }
+
+    /**
+     * Get the total time (in milliseconds) spent writing the job's images
+     */
+    long getWritingTime() {
+        return this.writingTime;
+    }
+
+    /**
+     * Get the time (in milliseconds) it took to execute the job
+     */
+    long getExecutingTime() {
+        return this.executingTime;
+    }
+
+    /**
+     * Whether filters should use their SIMD kernels (when available)
+     */
+    public boolean isSimd() {
+        return this.simd;
+    }
+
+    /**
+     * Whether the external (C) filters are replaced by their Java ports
+     */
+    boolean isInProcess() {
+        return this.inProcess;
+    }
+
+    /**
+     * Method to set the job's scheduling priority (not its thread priority), i.e., the
+     * number of work units it sends to the pipeline in each of its turns (see JobScheduler)
+     *
+     * @param priority The priority (at least 1)
+     */
+    void setSchedulingPriority(int priority) {
+        this.priority = Math.max(1, priority);
+    }
+
+    /**
+     * Get the job's scheduling priority
+     */
+    int getSchedulingPriority() {
+        return this.priority;
+    }
+
+    /**
+     * Method to set the maximum number of work units of the job that can be in the
+     * pipeline (i.e., sent by the scheduler, but not written yet) at the same time
+     *
+     * @param maxInFlight The maximum number of work units (at least 1)
+     */
+    void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * Get the maximum number of work units of the job that can be in the pipeline
+     */
+    int getMaxInFlight() {
+        return this.maxInFlight;
+    }
+
+    /**
+     * Method called by a writer thread once a work unit of this job has left the
+     * pipeline (whether it has been written or not)
      */
-    public JobWindow getGui() {
-        return this.gui;
+    void workUnitReleased() {
+        if (this.scheduler != null) {
+            this.scheduler.workUnitDone(this);
+        }
     }
 
     /**
@@ -137,6 +280,47 @@ class Job extends Thread {
         return ++this.jobsWritten;
     }
 
+    /**
+     * Method called by a writer thread once a work unit of this job has been written:
+     * it records the outcome, reports it to the listener, and wakes up the job once
+     * all its work units are done. It is synchronized since there may be several
+     * writer threads.
+     *
+     * @param inputFile  The input file path
+     * @param outputFile The output file path
+     */
+    synchronized void workUnitWritten(Path inputFile, Path outputFile) {
+        workUnitDone(new ImgTransformOutcome(true, inputFile, outputFile, null));
+    }
+
+    /**
+     * Method called by a reader or writer thread once a work unit of this job has failed
+     * (it then leaves the pipeline, and counts as done)
+     *
+     * @param inputFile The input file path
+     * @param error     The exception that was raised
+     */
+    synchronized void workUnitFailed(Path inputFile, Exception error) {
+        workUnitDone(new ImgTransformOutcome(false, inputFile, null, error));
+    }
+
+    /**
+     * Helper method to record the outcome of a work unit
+     *
+     * @param o The outcome
+     */
+    private void workUnitDone(ImgTransformOutcome o) {
+        double progress = (double) getJobsWritten() / this.inputFiles.size();
+
+        this.outcome.append(o);
+
+        this.listener.workUnitDone(this, o, progress);
+        if (this.jobsWritten + this.jobsDropped == this.inputFiles.size()) {
+            // notifyAll, since threads that join the job also wait on it
+            this.notifyAll();
+        }
+    }
+
     /**
      * Method to execute the imgTransform job
      */
@@ -148,42 +332,36 @@ class Job extends Thread {
             int numFiles = inputFiles.size();
             long startExecuteTime = System.currentTimeMillis();
 
-            // Make jobProgress Bar visible
-            gui.setJobProgressBarVisible(true);
-
             // Go through each input file and process it
             for (Path inputFile : inputFiles) {
 
                 // if canceled, stop the thread
-                if (gui.isStop()) {
-                    canceled = true;
+                if (canceled) {
                     break;
                 }
 
                 System.err.println("Applying " + this.filterName + " to " + inputFile.toAbsolutePath() + " ...");
 
                 Path outputFile;
+                ImgTransformOutcome o;
                 try {
                     if (!canceled) {
                         this.appStats.updateExecuteJobs();
                     }
                     outputFile = processInputFile(inputFile);
                     // Generate a "success" outcome
-                    this.outcome.add(new ImgTransformOutcome(true, inputFile, outputFile, null));
+                    o = new ImgTransformOutcome(true, inputFile, outputFile, null);
                     this.appStats.updateSuccessJobs();
                 } catch (IOException e) {
                     // Generate a "failure" outcome
-                    this.outcome.add(new ImgTransformOutcome(false, inputFile, null, e));
+                    o = new ImgTransformOutcome(false, inputFile, null, e);
                 }
+                this.outcome.append(o);
                 numCompleted++;
-                // add completed files to display
-                gui.addToDisplay(this);
-                // set amount of progress in job progressBar
-                gui.updateJobProgressBar(numCompleted / numFiles);
+                // report the completed file (and the amount of progress)
+                this.listener.workUnitDone(this, o, numCompleted / numFiles);
             }
             this.executingTime = System.currentTimeMillis() - startExecuteTime;
-            // Make Job progressBar invisible
-            gui.setJobProgressBarVisible(false);
             shouldRun = false;
         }
 
@@ -192,17 +370,13 @@ class Job extends Thread {
     /**
      * Getter for job outcomes
      *
-     * @return The job outcomes, i.e., a list of ImgTransformOutcome objects
-     * (in flux if the job isn't done executing)
+     * @return The job outcomes, i.e., a stream of ImgTransformOutcome objects
+     * (that grows until the job is done executing)
      */
-    List<ImgTransformOutcome> getOutcome() {
+    OutcomeStream getOutcome() {
         return this.outcome;
     }
 
-    public void addToOutcome(List<ImgTransformOutcome> outcomePath, Path inputPath, Path outputPath, Exception error) {
-        outcomePath.add(new ImgTransformOutcome(true, inputPath, outputPath, error));
-    }
-
     /**
      * Helper method to apply a imgTransform to an input image file
      *
@@ -230,7 +404,8 @@ class Job extends Thread {
         long startWritingTime = System.currentTimeMillis();
 
         String outputPath =
-                this.targetDir + System.getProperty("file.separator") + this.filterName + "_" + inputFile.getFileName();
+                this.targetDir + System.getProperty("file.separator") + FilterChain.toFilePrefix(this.filterName) + "_" +
+                        inputFile.getFileName();
 
         test.writeImage();
         this.writingTime += System.currentTimeMillis() - startWritingTime;
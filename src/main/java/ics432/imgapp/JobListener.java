@@ -0,0 +1,33 @@
+package ics432.imgapp;
+
+/**
+ * An interface implemented by whatever follows the progress of a job: the JobWindow
+ * in the GUI, or the console in the headless batch mode (see BatchMain). Its methods
+ * are called by the job's thread and by writer threads, never by the JavaFX thread.
+ */
+interface JobListener {
+
+    /**
+     * Method called when the job starts executing
+     *
+     * @param job The job
+     */
+    void jobStarted(Job job);
+
+    /**
+     * Method called each time a work unit of the job has been written (or has failed)
+     *
+     * @param job      The job
+     * @param outcome  The outcome of the work unit
+     * @param progress The fraction of the job's work units that are done
+     */
+    void workUnitDone(Job job, Job.ImgTransformOutcome outcome, double progress);
+
+    /**
+     * Method called once the job is done
+     *
+     * @param job      The job
+     * @param canceled Whether the job was canceled
+     */
+    void jobFinished(Job job, boolean canceled);
+}
@@ -0,0 +1,207 @@
+package ics432.imgapp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A class that feeds the work units of all running jobs into the (shared) read buffer,
+ * so that a small job submitted after a huge one doesn't wait for the huge one to drain.
+ * Jobs take turns in weighted round-robin order: in each turn, a job sends up to its
+ * priority work units. A job whose number of in-flight work units (sent, but not written
+ * yet) has reached its cap loses its turn. The total number of in-flight work units is
+ * also bounded (by just enough to keep all stages busy), so that work units wait in the
+ * scheduler, where they are sent in scheduling order, rather than in the read buffer.
+ *
+ * A work unit is only sent once it fits in the memory budget (see MemoryBudget): a job
+ * whose next unit doesn't fit loses its turn, so that the units of other jobs that fit
+ * are sent meanwhile. Work units are sent by a dispatcher thread, which never waits for
+ * memory or I/O (their files are prefetched by the FilePrefetcher's thread).
+ */
+class JobScheduler {
+
+    // The default maximum number of in-flight work units, of all jobs
+    static final int DEFAULT_MAX_IN_FLIGHT = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+
+    private final ProducerConsumer readBuffer;
+    private final int maxInFlight;
+    private int inFlight = 0;
+
+    // The jobs that have work units to send, in round-robin order, and the job whose turn it is
+    private final List<JobQueue> queues = new ArrayList<>();
+    // The jobs that have work units to send or in flight
+    private final Map<Job, JobQueue> queuesByJob = new HashMap<>();
+    private int turn = 0;
+
+    /**
+     * A helper nested class for the work units of a job that haven't been sent yet
+     */
+    private static class JobQueue {
+        final Job job;
+        final Deque<WorkUnit> pending;
+        // The number of work units the job can still send in its current turn
+        int credits = 0;
+        int inFlight = 0;
+
+        JobQueue(Job job) {
+            this.job = job;
+            this.pending = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Constructor, which starts the (daemon) dispatcher thread
+     *
+     * @param readBuffer  The buffer to send work units to
+     * @param maxInFlight The maximum number of in-flight work units, of all jobs
+     */
+    JobScheduler(ProducerConsumer readBuffer, int maxInFlight) {
+        this.readBuffer = readBuffer;
+        this.maxInFlight = maxInFlight;
+
+        Thread dispatcher = new Thread(this::dispatch, "JobScheduler dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Method to submit the work units of a job (a job that never ends, such as the
+     * FolderWatcher's, can submit more units at any time)
+     *
+     * @param job   The job
+     * @param units The job's work units
+     */
+    synchronized void submit(Job job, List<WorkUnit> units) {
+        if (units.isEmpty()) {
+            return;
+        }
+        JobQueue queue = this.queuesByJob.computeIfAbsent(job, JobQueue::new);
+        boolean waiting = queue.pending.isEmpty();
+        queue.pending.addAll(units);
+        if (!waiting) {
+            // The job is already waiting for its turns
+            this.notifyAll();
+            return;
+        }
+        this.queues.add(queue);
+        if (this.queues.size() == 1) {
+            this.turn = 0;
+            queue.credits = job.getSchedulingPriority();
+        }
+        this.notifyAll();
+    }
+
+    /**
+     * Method to withdraw the work units of a (canceled) job that haven't been sent yet
+     *
+     * @param job The job
+     *
+     * @return the number of work units withdrawn
+     */
+    synchronized int cancel(Job job) {
+        JobQueue queue = this.queuesByJob.get(job);
+        if (queue == null) {
+            return 0;
+        }
+        int withdrawn = queue.pending.size();
+        queue.pending.clear();
+
+        int index = this.queues.indexOf(queue);
+        if (index >= 0) {
+            this.queues.remove(index);
+            if (index < this.turn) {
+                this.turn--;
+            } else if (index == this.turn && !this.queues.isEmpty()) {
+                // The job lost its turn: the next job's turn
+                this.turn %= this.queues.size();
+                this.queues.get(this.turn).credits = this.queues.get(this.turn).job.getSchedulingPriority();
+            }
+        }
+        if (queue.inFlight == 0) {
+            this.queuesByJob.remove(job);
+        }
+        this.notifyAll();
+        return withdrawn;
+    }
+
+    /**
+     * Method called when a work unit of a job has left the pipeline
+     *
+     * @param job The job
+     */
+    synchronized void workUnitDone(Job job) {
+        JobQueue queue = this.queuesByJob.get(job);
+        if (queue != null && --queue.inFlight == 0 && queue.pending.isEmpty()) {
+            this.queuesByJob.remove(job);
+        }
+        this.inFlight--;
+        this.notifyAll();
+    }
+
+    /**
+     * Helper method to send work units to the read buffer, in scheduling order (run by the dispatcher thread)
+     */
+    private void dispatch() {
+        while (true) {
+            WorkUnit unit;
+            synchronized (this) {
+                while ((unit = next()) == null) {
+                    try {
+                        this.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+
+            // Have the unit's file read ahead of the readers
+            unit.prefetch();
+            if (!this.readBuffer.put(unit)) {
+                unit.failInterrupted();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Helper method to pick the next work unit to send, and to admit it in the memory budget
+     *
+     * @return the work unit, or null if no job can send one for now (the dispatcher is woken
+     * up once a unit leaves the pipeline, and has given its memory back)
+     */
+    private WorkUnit next() {
+        if (this.queues.isEmpty() || this.inFlight >= this.maxInFlight) {
+            return null;
+        }
+
+        // Each job is visited once, and the first one twice (with its credits back)
+        for (int i = 0; i <= this.queues.size(); i++) {
+            JobQueue queue = this.queues.get(this.turn);
+            if (queue.credits > 0 && queue.inFlight < queue.job.getMaxInFlight() && queue.pending.peek().tryAdmit()) {
+                queue.credits--;
+                queue.inFlight++;
+                this.inFlight++;
+                WorkUnit unit = queue.pending.poll();
+                if (queue.pending.isEmpty()) {
+                    // The job has sent all its units: the next job's turn
+                    this.queues.remove(this.turn);
+                    if (!this.queues.isEmpty()) {
+                        this.turn %= this.queues.size();
+                        this.queues.get(this.turn).credits = this.queues.get(this.turn).job.getSchedulingPriority();
+                    }
+                }
+                return unit;
+            }
+
+            // The job has used its turn (or has too many units in flight, or its next unit doesn't
+            // fit in the memory budget for now): the next job's turn
+            queue.credits = 0;
+            this.turn = (this.turn + 1) % this.queues.size();
+            this.queues.get(this.turn).credits = this.queues.get(this.turn).job.getSchedulingPriority();
+        }
+        return null;
+    }
+}
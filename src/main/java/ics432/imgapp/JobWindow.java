@@ -1,5 +1,7 @@
 package ics432.imgapp;
 
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.event.Event;
 import javafx.geometry.Pos;
@@ -22,10 +24,16 @@ import java.util.List;
 
 /**
  * A class that implements a "Job Window" on which a user
- * can launch a Job
+ * can launch a Job, and which follows the job's progress.
+ * The job's outcomes are read from its outcome stream once per
+ * animation frame, so that writer threads never wait for the UI,
+ * and the UI is updated once per frame however many images are done.
  */
 
-class JobWindow extends Stage {
+class JobWindow extends Stage implements JobListener {
+
+    // The maximum number of failed images listed in the error dialog
+    private static final int MAX_ERRORS_LISTED = 20;
 
     private Path targetDir;
     private final List<Path> inputFiles;
@@ -36,13 +44,25 @@ class JobWindow extends Stage {
     private final Button closeButton;
     private final Button cancelButton;
     private final ComboBox<String> imgTransformList;
+    private final CheckBox inProcessCheckBox;
+    private final CheckBox simdCheckBox;
+    private final CheckBox streamingCheckBox;
     private final ProgressBar jobProgressBar;
-    private boolean shouldStop = false;
     private final AppStats appStats;
 
-    private int numJobs;
-    private ProducerConsumer readBuffer;
-    private int numDPThreads;
+    private final JobScheduler scheduler;
+    private final Spinner<Integer> prioritySpinner;
+    private final Spinner<Integer> maxInFlightSpinner;
+    private Job job;
+
+    // The timer that shows the job's outcomes once per animation frame, while it runs
+    private final AnimationTimer outcomeTimer;
+    // The number of the job's outcomes shown so far
+    private int outcomesShown = 0;
+    // The dialog listing failed images (while it is shown, new failures are added to it)
+    private Alert errorAlert;
+    private final StringBuilder errorLines = new StringBuilder();
+    private int numErrors = 0;
 
     /**
      * Constructor
@@ -53,12 +73,12 @@ class JobWindow extends Stage {
      * @param Y            The vertical position of the job window
      * @param id           The id of the job
      * @param inputFiles   The batch of input image files
+     * @param scheduler    The scheduler shared by all jobs
      */
     JobWindow(int windowWidth, int windowHeight, double X, double Y, int id, List<Path> inputFiles, AppStats appStats, 
-                    ProducerConsumer readBuffer, int numDPThreads) {
-        
-        this.numDPThreads = numDPThreads;
-        this.readBuffer = readBuffer;
+                    JobScheduler scheduler) {
+
+        this.scheduler = scheduler;
         this.appStats = appStats;
 
         // The  preferred height of buttons
@@ -67,7 +87,6 @@ class JobWindow extends Stage {
         // Set up instance variables
         targetDir = Paths.get(inputFiles.get(0).getParent().toString()); // Same dir as input images
         this.inputFiles = inputFiles;
-        this.numJobs = this.inputFiles.size();
 
         // Set up the window
         this.setX(X);
@@ -104,19 +123,41 @@ class JobWindow extends Stage {
         //  Create the pulldown list of image transforms
         this.imgTransformList = new ComboBox<>();
         this.imgTransformList.setId("imgTransformList");  // For TestFX
-        this.imgTransformList.setItems(FXCollections.observableArrayList(
-                "Invert",
-                "Solarize",
-                "Oil4",
-                "Median",
-                "DPMedian",
-                "DPEdge",
-                "DPFunk1",
-                "DPFunk2"
-        ));
+        this.imgTransformList.setItems(FXCollections.observableArrayList(WorkUnit.FILTER_NAMES));
 
         this.imgTransformList.getSelectionModel().selectFirst();  //Chooses first imgTransform as default
 
+        // The list is editable, so that a chain of imgTransforms can be typed in
+        this.imgTransformList.setEditable(true);
+        this.imgTransformList.setTooltip(new Tooltip("Choose an image transform, or type in a chain of " +
+                "image transforms applied in one pass (e.g., Median" + FilterChain.SEPARATOR + "Solarize" +
+                FilterChain.SEPARATOR + "Invert)"));
+
+        // Create a checkbox to run the external (C) filters with their in-process Java ports
+        this.inProcessCheckBox = new CheckBox("In-process");
+        this.inProcessCheckBox.setId("inProcessCheckBox");
+
+        // Create a checkbox to run filters with their SIMD kernels (when the Vector API is available)
+        this.simdCheckBox = new CheckBox("SIMD");
+        this.simdCheckBox.setId("simdCheckBox");
+
+        // Create a checkbox to stream (huge) images through the filter a band of rows at a time
+        this.streamingCheckBox = new CheckBox("Streaming");
+        this.streamingCheckBox.setId("streamingCheckBox");
+
+        // Create spinners for the job's scheduling priority (the number of images it sends to
+        // the pipeline in each of its turns), and for its maximum number of images in the pipeline
+        Label priorityLabel = new Label("Priority: ");
+        priorityLabel.setPrefWidth(115);
+        this.prioritySpinner = new Spinner<>(1, 16, 1);
+        this.prioritySpinner.setId("prioritySpinner");
+        this.prioritySpinner.setPrefWidth(80);
+        Label maxInFlightLabel = new Label("Max images in pipeline: ");
+        this.maxInFlightSpinner = new Spinner<>(1, 1024, 16);
+        this.maxInFlightSpinner.setId("maxInFlightSpinner");
+        this.maxInFlightSpinner.setEditable(true);
+        this.maxInFlightSpinner.setPrefWidth(90);
+
         // Create a "Run" button
         this.runButton =
                 new Button("Run job (on " + inputFiles.size() + " image" + (inputFiles.size() == 1 ? "" : "s") + ")");
@@ -125,9 +166,17 @@ class JobWindow extends Stage {
 
         // Create the FileListWithViewPort display
         this.flwvp =
-                new FileListWithViewPort(windowWidth * 0.98, windowHeight - 4 * buttonPreferredHeight - 3 * 5, false);
+                new FileListWithViewPort(windowWidth * 0.98, windowHeight - 5 * buttonPreferredHeight - 4 * 5, false);
         this.flwvp.addFiles(inputFiles);
 
+        // Create the timer that shows the job's outcomes (see showNewOutcomes)
+        this.outcomeTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                showNewOutcomes();
+            }
+        };
+
         // Create a "Close" button
         this.closeButton = new Button("Close");
         this.closeButton.setId("closeButton");
@@ -153,12 +202,22 @@ class JobWindow extends Stage {
         });
 
         this.runButton.setOnAction(e -> {
+            String filterName = getFilterName();
+            if (filterName == null) {
+                return;
+            }
+
             this.closeButton.setDisable(true);
             this.changeDirButton.setDisable(true);
             this.runButton.setDisable(true);
             this.imgTransformList.setDisable(true);
+            this.inProcessCheckBox.setDisable(true);
+            this.simdCheckBox.setDisable(true);
+            this.streamingCheckBox.setDisable(true);
+            this.prioritySpinner.setDisable(true);
+            this.maxInFlightSpinner.setDisable(true);
 
-            executeJob(imgTransformList.getSelectionModel().getSelectedItem());
+            executeJob(filterName);
         });
 
         this.closeButton.setOnAction(f -> {
@@ -167,7 +226,7 @@ class JobWindow extends Stage {
         });
 
         this.cancelButton.setOnAction(f -> {
-            this.shouldStop = true;
+            this.job.cancel();
             this.cancelButton.setDisable(true);
         });
 
@@ -185,8 +244,19 @@ class JobWindow extends Stage {
         row2.setAlignment(Pos.CENTER_LEFT);
         row2.getChildren().add(transformLabel);
         row2.getChildren().add(imgTransformList);
+        row2.getChildren().add(inProcessCheckBox);
+        row2.getChildren().add(simdCheckBox);
+        row2.getChildren().add(streamingCheckBox);
         layout.getChildren().add(row2);
 
+        HBox row2b = new HBox(5);
+        row2b.setAlignment(Pos.CENTER_LEFT);
+        row2b.getChildren().add(priorityLabel);
+        row2b.getChildren().add(prioritySpinner);
+        row2b.getChildren().add(maxInFlightLabel);
+        row2b.getChildren().add(maxInFlightSpinner);
+        layout.getChildren().add(row2b);
+
         layout.getChildren().add(flwvp);
 
         HBox row3 = new HBox(5);
@@ -225,10 +295,31 @@ class JobWindow extends Stage {
         }
     }
 
+    /**
+     * Helper method to get the (possibly chained) imgTransform typed in or chosen by the user
+     *
+     * @return the imgTransform's name (with chained names separated by FilterChain.SEPARATOR),
+     * or null if it is not valid (in which case an error dialog pops up)
+     */
+    private String getFilterName() {
+        List<String> names = FilterChain.split(this.imgTransformList.getEditor().getText());
+        for (String name : names) {
+            if (!this.imgTransformList.getItems().contains(name)) {
+                Alert alert = new Alert(Alert.AlertType.ERROR);
+                alert.setTitle("ImgTransform Job Error");
+                alert.setHeaderText(null);
+                alert.setContentText("Unknown image transform \"" + name + "\"");
+                alert.showAndWait();
+                return null;
+            }
+        }
+        return String.join(FilterChain.SEPARATOR, names);
+    }
+
     /**
      * A method to execute the job
      *
-     * @param filterName The name of the filter to apply to input images
+     * @param filterName The name of the filter (or of the chain of filters) to apply to input images
      */
     private void executeJob(String filterName) {
 
@@ -236,39 +327,120 @@ class JobWindow extends Stage {
         this.flwvp.clear();
 
         // Create a job
-        Job job = new Job(filterName, this.targetDir, this.inputFiles, this,
-            appStats, this.readBuffer);
+        this.job = new Job(filterName, this.targetDir, this.inputFiles, this,
+            appStats, this.scheduler, this.inProcessCheckBox.isSelected(),
+            this.simdCheckBox.isSelected(), this.streamingCheckBox.isSelected());
+        this.job.setSchedulingPriority(this.prioritySpinner.getValue());
+        this.job.setMaxInFlight(this.maxInFlightSpinner.getValue());
 
         // Execute it, Changed to job.start to start execute() in new thread
-        job.start();
+        this.outcomesShown = 0;
+        this.job.start();
+        this.outcomeTimer.start();
 
     }
 
-    public void addToDisplay(Job job) {
-        // Process the outcome
-        List<Path> toAddToDisplay = new ArrayList<>();
+    @Override
+    public void jobStarted(Job job) {
+        Platform.runLater(() -> {
+            enableCancel();
+            setJobProgressBarVisible(true);
+        });
+    }
 
-        StringBuilder errorMessage = new StringBuilder();
-        for (Job.ImgTransformOutcome o : job.getOutcome()) {
-            if (o.success) {
-                toAddToDisplay.add(o.outputFile);
+    @Override
+    public void workUnitDone(Job job, Job.ImgTransformOutcome outcome, double progress) {
+        // Nothing to do: the outcomes are read from the job's outcome stream (see showNewOutcomes)
+    }
+
+    @Override
+    public void jobFinished(Job job, boolean canceled) {
+        Platform.runLater(() -> {
+            // Show the last outcomes
+            this.outcomeTimer.stop();
+            showNewOutcomes();
+
+            setJobProgressBarVisible(false);
+            enableClose();
+            disableCancel();
+
+            // if job is canceled, display canceled pop up
+            if (canceled) {
+                Alert alert = new Alert(Alert.AlertType.INFORMATION);
+                alert.setTitle("CANCELED");
+                alert.setHeaderText(null);
+                alert.setContentText("Job has been canceled.");
+                alert.showAndWait();
             } else {
-                errorMessage.append(o.inputFile.toAbsolutePath()).append(": ").append(o.error.getMessage())
-                        .append("\n");
+                // display window for process time
+                Alert alert = new Alert(Alert.AlertType.INFORMATION);
+                alert.setTitle("Process Time");
+                alert.setHeaderText(null);
+                alert.setContentText(
+                        "Reading Time: " + job.getReadingTime() / 1000.0 + "s\nProcessing Time: " +
+                                job.getProcessingTime() / 1000.0 + "s\nWriting Time: " +
+                                job.getWritingTime() / 1000.0 + "s\nTotal Job Execution Time: " +
+                                job.getExecutingTime() / 1000.0 + "s");
+                alert.showAndWait();
             }
+        });
+    }
+
+    /**
+     * Helper method to show the outcomes the job has produced since the previous call: output
+     * images are added to the list in one batch, failed images are reported in one dialog, and
+     * the progress bar is updated (should always run in the JavaFX Application thread)
+     */
+    private void showNewOutcomes() {
+        OutcomeStream outcomes = this.job.getOutcome();
+        int size = outcomes.size();
+        if (size == this.outcomesShown) {
+            return;
         }
 
-        // Pop up error dialog if needed
-        if (!errorMessage.toString().equals("")) {
-            Alert alert = new Alert(Alert.AlertType.ERROR);
-            alert.setTitle("ImgTransform Job Error");
-            alert.setHeaderText(null);
-            alert.setContentText(errorMessage.toString());
-            alert.showAndWait();
+        List<Path> toAddToDisplay = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        for (Job.ImgTransformOutcome o : outcomes.read(this.outcomesShown, size)) {
+            if (o.success) {
+                toAddToDisplay.add(o.outputFile);
+            } else {
+                errors.add(o.inputFile.toAbsolutePath() + ": " + o.error.getMessage());
+            }
         }
+        this.outcomesShown = size;
 
         // Update the viewport
         this.flwvp.addFiles(toAddToDisplay);
+        updateJobProgressBar((double) size / this.job.getNumInputFiles());
+        if (!errors.isEmpty()) {
+            showErrors(errors);
+        }
+    }
+
+    /**
+     * Helper method to report failed images in the error dialog (which is not modal, since
+     * dialogs cannot wait during an animation frame)
+     *
+     * @param errors The error messages of the failed images
+     */
+    private void showErrors(List<String> errors) {
+        if (this.errorAlert == null || !this.errorAlert.isShowing()) {
+            this.errorAlert = new Alert(Alert.AlertType.ERROR);
+            this.errorAlert.setTitle("ImgTransform Job Error");
+            this.errorLines.setLength(0);
+            this.numErrors = 0;
+            this.errorAlert.show();
+        }
+
+        for (String error : errors) {
+            if (this.numErrors < MAX_ERRORS_LISTED) {
+                this.errorLines.append(error).append('\n');
+            }
+            this.numErrors++;
+        }
+        this.errorAlert.setHeaderText(this.numErrors + " image" + (this.numErrors == 1 ? "" : "s") + " failed");
+        this.errorAlert.setContentText(this.errorLines + (this.numErrors > MAX_ERRORS_LISTED ?
+                "... and " + (this.numErrors - MAX_ERRORS_LISTED) + " more" : ""));
     }
 
     //method to update progress Bar
@@ -292,16 +464,4 @@ class JobWindow extends Stage {
     public void disableCancel() {
         this.cancelButton.setDisable(true);
     }
-
-    public boolean isStop() {
-        return shouldStop;
-    }
-
-    public int getNumJobs() {
-        return numJobs;
-    }
-
-    public int getNumDPThreads() {
-        return this.numDPThreads;
-    }
 }
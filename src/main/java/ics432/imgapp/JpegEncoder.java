@@ -0,0 +1,178 @@
+package ics432.imgapp;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A helper class that encodes images as JPEG files. Encoders are pooled, so that there
+ * are only as many of them as threads writing concurrently (i.e., one per writer thread,
+ * even when writes run on short-lived virtual threads). Each encoder reuses the same
+ * ImageWriter and the same in-memory buffer for all images, so that encoding never
+ * goes through ImageIO's temporary disk cache, and each file is written with a single
+ * channel write.
+ *
+ * The pool is capped at the number of writer threads (encoders beyond it, e.g., on virtual
+ * threads, are dropped after use), and an encoder whose buffer grew beyond MAX_POOLED_BUFFER_BYTES
+ * (for an unusually large image) gets a new buffer before being pooled, so that idle encoders
+ * don't hold on to the memory of the largest images ever written.
+ */
+class JpegEncoder {
+
+    // The JPEG quality (between 0 and 1) used by all encoders
+    private static volatile float quality = 0.75f;
+
+    // The largest buffer kept by a pooled encoder (the "imgapp.encoderBufferMaxMB" property)
+    private static final int MAX_POOLED_BUFFER_BYTES = Integer.getInteger("imgapp.encoderBufferMaxMB", 8) * 1024 * 1024;
+
+    // The encoders not in use, and their number (at most maxPooledEncoders)
+    private static final Queue<JpegEncoder> encoders = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger numPooledEncoders = new AtomicInteger();
+    private static volatile int maxPooledEncoders = Runtime.getRuntime().availableProcessors();
+
+    private final ImageWriter writer;
+    private Buffer buffer = new Buffer();
+
+    /**
+     * A byte array output stream whose (reused) byte array can be written out directly
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(this.buf, 0, this.count);
+        }
+
+        int capacity() {
+            return this.buf.length;
+        }
+    }
+
+    /**
+     * Constructor
+     */
+    private JpegEncoder() {
+        this.writer = ImageIO.getImageWritersByFormatName("jpg").next();
+    }
+
+    /**
+     * Method to set the maximum number of encoders kept in the pool (the pool shrinks as
+     * encoders are used, if it is larger)
+     *
+     * @param max The maximum number of encoders, i.e., the number of writer threads
+     */
+    static void setMaxPooledEncoders(int max) {
+        maxPooledEncoders = max;
+    }
+
+    /**
+     * Method to set the JPEG quality used by all encoders
+     *
+     * @param jpegQuality The quality, between 0 (smallest files) and 1 (best images)
+     */
+    static void setQuality(float jpegQuality) {
+        quality = jpegQuality;
+    }
+
+    /**
+     * Method to get the JPEG quality used by all encoders
+     *
+     * @return the quality, between 0 and 1
+     */
+    static float getQuality() {
+        return quality;
+    }
+
+    /**
+     * Method to create the parameters to give a JPEG writer so that it uses a given quality
+     *
+     * @param writer      The JPEG writer
+     * @param jpegQuality The quality, between 0 and 1 (see getQuality())
+     *
+     * @return the parameters
+     */
+    static ImageWriteParam createWriteParam(ImageWriter writer, float jpegQuality) {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(jpegQuality);
+        return param;
+    }
+
+    /**
+     * Method to write an image as a JPEG file, with a pooled encoder
+     *
+     * @param img        The image
+     * @param file       The file path
+     * @param filterName The filter applied to the image (whose encode and write latencies are recorded, see LatencyMetrics)
+     * @param jpegQuality The quality, between 0 and 1 (see getQuality())
+     *
+     * @throws IOException if the image cannot be encoded or the file cannot be written
+     */
+    static void write(BufferedImage img, Path file, String filterName, float jpegQuality) throws IOException {
+        JpegEncoder encoder = encoders.poll();
+        if (encoder == null) {
+            encoder = new JpegEncoder();
+        } else {
+            numPooledEncoders.decrementAndGet();
+        }
+        try {
+            encoder.encode(img, file, filterName, jpegQuality);
+        } finally {
+            release(encoder);
+        }
+    }
+
+    /**
+     * Helper method to give an encoder back to the pool, unless the pool is full
+     */
+    private static void release(JpegEncoder encoder) {
+        if (numPooledEncoders.incrementAndGet() > maxPooledEncoders) {
+            numPooledEncoders.decrementAndGet();
+            encoder.writer.dispose();
+            return;
+        }
+        if (encoder.buffer.capacity() > MAX_POOLED_BUFFER_BYTES) {
+            encoder.buffer = new Buffer();
+        }
+        encoders.offer(encoder);
+    }
+
+    /**
+     * Helper method to encode an image in the buffer, and to write the buffer to a file
+     */
+    private void encode(BufferedImage img, Path file, String filterName, float jpegQuality) throws IOException {
+        long start = System.nanoTime();
+        this.buffer.reset();
+        try (ImageOutputStream outputStream = new MemoryCacheImageOutputStream(this.buffer)) {
+            this.writer.setOutput(outputStream);
+            this.writer.write(null, new IIOImage(img, null, null), createWriteParam(this.writer, jpegQuality));
+        } finally {
+            this.writer.reset();
+        }
+        long encoded = System.nanoTime();
+        LatencyMetrics.recordStage(filterName, LatencyMetrics.Stage.ENCODE, encoded - start);
+
+        // An existing file is replaced rather than overwritten, since it may be a hard link to an OutputCache image
+        Files.deleteIfExists(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes = this.buffer.toByteBuffer();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+        LatencyMetrics.recordStage(filterName, LatencyMetrics.Stage.WRITE, System.nanoTime() - encoded);
+    }
+}
@@ -0,0 +1,121 @@
+package ics432.imgapp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A helper class that implements a histogram of latencies, from which percentiles are
+ * estimated (see LatencyMetrics). Latencies are counted in log-linear buckets of
+ * microseconds: below 16us each bucket is 1us wide, and above, each power of 2 is split
+ * in 8 buckets, so that percentiles are within 12.5% of the actual latencies, with a
+ * fixed number of buckets (up to about 2^40us, i.e., 12 days).
+ *
+ * Recording a latency only increments counters (there is no lock), so that the
+ * pipeline threads never wait for each other, or for readers of the histogram.
+ */
+class LatencyHistogram {
+
+    // The number of buckets of each power of 2 (above 16us) is 2^SUB_BUCKET_BITS
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int MAX_EXPONENT = 40;
+    private static final int NUM_BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - 3) * (1 << SUB_BUCKET_BITS);
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Method to record a latency
+     *
+     * @param nanos The latency, in nanoseconds
+     */
+    void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        this.counts.incrementAndGet(bucketOf(nanos / 1000));
+        this.count.incrementAndGet();
+        this.sumNanos.addAndGet(nanos);
+        this.maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Method to get the number of recorded latencies
+     */
+    long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * Method to get the sum of the recorded latencies, in seconds
+     */
+    double getSumSeconds() {
+        return this.sumNanos.get() / 1e9;
+    }
+
+    /**
+     * Method to get the maximum recorded latency, in seconds
+     */
+    double getMaxSeconds() {
+        return this.maxNanos.get() / 1e9;
+    }
+
+    /**
+     * Method to estimate a percentile of the recorded latencies
+     *
+     * @param quantile The percentile, as a fraction (e.g., 0.99)
+     *
+     * @return the upper bound of the bucket of the percentile (at most the maximum latency), in
+     * seconds, or 0 if no latency was recorded
+     */
+    double getPercentileSeconds(double quantile) {
+        long[] snapshot = new long[NUM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            snapshot[i] = this.counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i) / 1e6, getMaxSeconds());
+            }
+        }
+        return getMaxSeconds();
+    }
+
+    /**
+     * Helper method to get the bucket of a latency
+     *
+     * @param micros The latency, in microseconds
+     */
+    private static int bucketOf(long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return NUM_BUCKETS - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+        return LINEAR_BUCKETS + (exponent - 4) * (1 << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    /**
+     * Helper method to get the (exclusive) upper bound of a bucket, in microseconds
+     */
+    private static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket + 1;
+        }
+        int exponent = 4 + (bucket - LINEAR_BUCKETS) / (1 << SUB_BUCKET_BITS);
+        int subBucket = (bucket - LINEAR_BUCKETS) % (1 << SUB_BUCKET_BITS);
+        return (1L << exponent) + ((long) (subBucket + 1) << (exponent - SUB_BUCKET_BITS));
+    }
+}
@@ -0,0 +1,260 @@
+package ics432.imgapp;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A helper class that keeps the latency histograms of the pipeline: the latency of each
+ * stage of a work unit (reading its input file, decoding it, processing it, encoding the
+ * output image and writing it), per filter, and the time work units wait in each
+ * ProducerConsumer. They are shown live in the StatisticsWindow, and can be exported in
+ * the Prometheus text format, to a file rewritten periodically (the "imgapp.metrics.file"
+ * property) and/or on http://localhost:PORT/metrics (the "imgapp.metrics.port" property).
+ */
+class LatencyMetrics {
+
+    /**
+     * The stages of a work unit
+     */
+    enum Stage {
+        READ, DECODE, PROCESS, ENCODE, WRITE;
+
+        /**
+         * Get the stage's name in summaries and exported metrics
+         */
+        String getLabel() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    // The percentiles shown and exported
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+    // The period (in milliseconds) at which the metrics file is rewritten (the "imgapp.metrics.periodMs" property)
+    private static final long EXPORT_PERIOD_MS = Long.getLong("imgapp.metrics.periodMs", 5000);
+
+    // The histograms, by filter and stage ("filter|stage"), and by buffer, in alphabetical order
+    private static final Map<String, LatencyHistogram> stageHistograms = new ConcurrentSkipListMap<>();
+    private static final Map<String, LatencyHistogram> queueHistograms = new ConcurrentSkipListMap<>();
+
+    private static ScheduledExecutorService fileExporter = null;
+    private static HttpServer httpServer = null;
+
+    /**
+     * Method to record the latency of a stage of a work unit
+     *
+     * @param filterName The filter (or chain of filters) applied to the work unit
+     * @param stage      The stage
+     * @param nanos      The latency, in nanoseconds
+     */
+    static void recordStage(String filterName, Stage stage, long nanos) {
+        stageHistograms.computeIfAbsent(filterName + "|" + stage.getLabel(), k -> new LatencyHistogram()).record(nanos);
+    }
+
+    /**
+     * Method to get the histogram of the time work units wait in a buffer
+     *
+     * @param queueName The buffer's name
+     *
+     * @return the histogram (created if needed)
+     */
+    static LatencyHistogram getQueueWait(String queueName) {
+        return queueHistograms.computeIfAbsent(queueName, k -> new LatencyHistogram());
+    }
+
+    /**
+     * Method to get a (fixed-width) table of the percentiles and maximum of each histogram
+     */
+    static String getSummary() {
+        StringBuilder summary = new StringBuilder(String.format("%-20s %-8s %8s %9s %9s %9s %9s%n",
+                "Filter", "Stage", "Count", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        for (Map.Entry<String, LatencyHistogram> entry : stageHistograms.entrySet()) {
+            int separator = entry.getKey().lastIndexOf('|');
+            appendSummaryRow(summary, entry.getKey().substring(0, separator),
+                    entry.getKey().substring(separator + 1), entry.getValue());
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : queueHistograms.entrySet()) {
+            appendSummaryRow(summary, "(" + entry.getKey() + " queue)", "wait", entry.getValue());
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Helper method to add a row to the summary table
+     */
+    private static void appendSummaryRow(StringBuilder summary, String name, String stage, LatencyHistogram histogram) {
+        summary.append(String.format("%-20s %-8s %8d", name, stage, histogram.getCount()));
+        for (double quantile : QUANTILES) {
+            summary.append(String.format(" %9.2f", histogram.getPercentileSeconds(quantile) * 1000));
+        }
+        summary.append(String.format(" %9.2f%n", histogram.getMaxSeconds() * 1000));
+    }
+
+    /**
+     * Method to get the histograms in the Prometheus text format (as summaries, plus gauges
+     * for the maximum latencies)
+     */
+    static String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+
+        text.append("# HELP imgapp_stage_latency_seconds Latency of a stage of a work unit, by filter\n");
+        text.append("# TYPE imgapp_stage_latency_seconds summary\n");
+        StringBuilder max = new StringBuilder();
+        max.append("# HELP imgapp_stage_latency_max_seconds Maximum latency of a stage of a work unit, by filter\n");
+        max.append("# TYPE imgapp_stage_latency_max_seconds gauge\n");
+        for (Map.Entry<String, LatencyHistogram> entry : stageHistograms.entrySet()) {
+            int separator = entry.getKey().lastIndexOf('|');
+            String labels = "filter=\"" + escapeLabel(entry.getKey().substring(0, separator)) + "\",stage=\"" +
+                    entry.getKey().substring(separator + 1) + "\"";
+            appendPrometheusSummary(text, max, "imgapp_stage_latency", labels, entry.getValue());
+        }
+        text.append(max);
+
+        text.append("# HELP imgapp_queue_wait_seconds Time work units wait in a buffer between two stages\n");
+        text.append("# TYPE imgapp_queue_wait_seconds summary\n");
+        max.setLength(0);
+        max.append("# HELP imgapp_queue_wait_max_seconds Maximum time work units wait in a buffer between two stages\n");
+        max.append("# TYPE imgapp_queue_wait_max_seconds gauge\n");
+        for (Map.Entry<String, LatencyHistogram> entry : queueHistograms.entrySet()) {
+            appendPrometheusSummary(text, max, "imgapp_queue_wait", "queue=\"" + escapeLabel(entry.getKey()) + "\"",
+                    entry.getValue());
+        }
+        text.append(max);
+        return text.toString();
+    }
+
+    /**
+     * Helper method to add the samples of a histogram to the Prometheus text
+     *
+     * @param text      The text of the summary's samples
+     * @param max       The text of the maximum's samples
+     * @param name      The metric name (without the "_seconds" suffix)
+     * @param labels    The labels of the histogram
+     * @param histogram The histogram
+     */
+    private static void appendPrometheusSummary(StringBuilder text, StringBuilder max, String name, String labels,
+                                                LatencyHistogram histogram) {
+        for (double quantile : QUANTILES) {
+            text.append(String.format(Locale.ROOT, "%s_seconds{%s,quantile=\"%s\"} %.6f%n", name, labels, quantile,
+                    histogram.getPercentileSeconds(quantile)));
+        }
+        text.append(String.format(Locale.ROOT, "%s_seconds_sum{%s} %.6f%n", name, labels, histogram.getSumSeconds()));
+        text.append(String.format(Locale.ROOT, "%s_seconds_count{%s} %d%n", name, labels, histogram.getCount()));
+        max.append(String.format(Locale.ROOT, "%s_max_seconds{%s} %.6f%n", name, labels, histogram.getMaxSeconds()));
+    }
+
+    /**
+     * Helper method to escape a Prometheus label value
+     */
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Method to start exporting the metrics as set by the "imgapp.metrics.file" and
+     * "imgapp.metrics.port" properties (if any)
+     */
+    static void startExportFromProperties() {
+        String file = System.getProperty("imgapp.metrics.file");
+        if (file != null) {
+            startFileExport(Paths.get(file));
+        }
+        Integer port = Integer.getInteger("imgapp.metrics.port");
+        if (port != null) {
+            try {
+                startHttpExport(port);
+            } catch (IOException e) {
+                System.err.println("Cannot serve metrics on port " + port + " (" + e.getMessage() + ")");
+            }
+        }
+    }
+
+    /**
+     * Method to start rewriting a file with the metrics, periodically (and once more at exit)
+     *
+     * @param file The file path (it is replaced atomically, so that scrapers never read a partial file)
+     */
+    static synchronized void startFileExport(Path file) {
+        if (fileExporter != null) {
+            return;
+        }
+        fileExporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Metrics file exporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        fileExporter.scheduleAtFixedRate(() -> writeFile(file), 0, EXPORT_PERIOD_MS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> writeFile(file)));
+        System.err.println("Writing metrics to " + file.toAbsolutePath() + " every " + EXPORT_PERIOD_MS + "ms");
+    }
+
+    /**
+     * Helper method to write the metrics to a file
+     */
+    private static void writeFile(Path file) {
+        try {
+            Path absolute = file.toAbsolutePath();
+            Path tmp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+            try {
+                Files.writeString(tmp, toPrometheus());
+                Files.move(tmp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot write metrics to " + file + " (" + e.getMessage() + ")");
+        }
+    }
+
+    /**
+     * Method to start serving the metrics on http://localhost:port/metrics
+     *
+     * @param port The port (on the loopback interface only)
+     *
+     * @throws IOException if the port cannot be bound
+     */
+    static synchronized void startHttpExport(int port) throws IOException {
+        if (httpServer != null) {
+            return;
+        }
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext("/metrics", exchange -> {
+            byte[] body = toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        // The server's threads must not keep the JVM alive: its dispatcher thread, which is created
+        // by start(), is a daemon thread as long as the thread that starts the server is one
+        httpServer.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "Metrics HTTP exporter");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        Thread starter = new Thread(httpServer::start);
+        starter.setDaemon(true);
+        starter.start();
+        try {
+            starter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.err.println("Serving metrics on http://localhost:" + httpServer.getAddress().getPort() + "/metrics");
+    }
+}
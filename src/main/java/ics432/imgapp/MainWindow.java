@@ -8,9 +8,13 @@ import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.event.Event;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.Slider;
 import javafx.scene.layout.HBox;
@@ -18,6 +22,7 @@ import javafx.scene.layout.VBox;
 import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
 /**
  * A class that implements the "Main Window" for the app, which
@@ -31,18 +36,33 @@ class MainWindow {
     private int pendingJobCount = 0;
     private final FileListWithViewPort fileListWithViewPort;
     private int jobID = 0;
-    private final Slider slider, dpThreadsSlider;
-    private int additionalProcessorThreads = 0;
+    private final Slider slider, dpThreadsSlider, readersSlider, writersSlider, qualitySlider, memorySlider;
+    private final ProcessorPool processorPool;
+    private int additionalReaderThreads = 0;
+    private int additionalWriterThreads = 0;
     private int numDPThreads = 1;
-    private ExecutorService executor;
+    private ExecutorService readerExecutor;
+    private ExecutorService writerExecutor;
+
+    // The maximum number of reader threads (they mostly wait on I/O, so there can be more than cores)
+    private static final int MAX_READER_THREADS = 8;
+    // The number of input files read in memory ahead of the reader threads, per reader thread
+    static final int PREFETCHED_FILES_PER_READER = 2;
+    // The number of input files read in memory ahead of the virtual reader threads (in virtual thread mode)
+    static final int VIRTUAL_PREFETCHED_FILES = 256;
+    // The number of work units in the pipeline (in virtual thread mode, where reads and writes don't hold threads)
+    static final int VIRTUAL_MAX_IN_FLIGHT = 1024;
 
     // Create the array blocking queues
     // to read
-    ProducerConsumer readBuffer = new ProducerConsumer();
+    ProducerConsumer readBuffer = ProducerConsumer.create();
     // to process
-    ProducerConsumer processBuffer = new ProducerConsumer();
+    ProducerConsumer processBuffer = ProducerConsumer.create();
     // to write
-    ProducerConsumer writeBuffer = new ProducerConsumer();
+    ProducerConsumer writeBuffer = ProducerConsumer.create();
+
+    // The scheduler that feeds the work units of all jobs into the read buffer
+    private final JobScheduler scheduler;
 
     /**
      * Constructor
@@ -51,24 +71,42 @@ class MainWindow {
      */
     MainWindow(Stage primaryStage, int windowWidth, int windowHeight) {
 
-        // Initialize the reader, processor, and writer daemon threads
-        ReaderThread reader = new ReaderThread(readBuffer, processBuffer);
-        ProcessorThread processor = new ProcessorThread(processBuffer, writeBuffer);
-        WriterThread writer = new WriterThread(writeBuffer);
+        // Name the buffers, so that the time work units wait in them is recorded, and export
+        // the latency metrics if asked for (see LatencyMetrics)
+        readBuffer.setName("read");
+        processBuffer.setName("process");
+        writeBuffer.setName("write");
+        LatencyMetrics.startExportFromProperties();
+
+        // Initialize the reader and writer daemon threads (or, in virtual thread mode,
+        // one virtual thread per work unit read or written)
+        boolean virtualThreads = VirtualStages.isEnabled();
+        if (virtualThreads) {
+            System.err.println("Reading and writing images on virtual threads");
+            new VirtualStages(readBuffer, processBuffer, writeBuffer).start();
+        } else {
+            ReaderThread reader = new ReaderThread(readBuffer, processBuffer);
+            WriterThread writer = new WriterThread(writeBuffer);
+            JpegEncoder.setMaxPooledEncoders(1);
+
+            Thread readerThread = new Thread(reader);
+            Thread writerThread = new Thread(writer);
 
-        Thread readerThread = new Thread(reader);
-        Thread processorThread = new Thread(processor);
-        Thread writerThread = new Thread(writer);
+            readerThread.setDaemon(true);
+            writerThread.setDaemon(true);
 
-        readerThread.setDaemon(true);
-        processorThread.setDaemon(true);
-        writerThread.setDaemon(true);
+            readerThread.start();
+            writerThread.start();
+        }
 
-        readerThread.start();
-        processorThread.start();
-        writerThread.start();
+        // Initialize the processor threads, which can be added and retired while jobs are running
+        processorPool = new ProcessorPool(processBuffer, writeBuffer, Runtime.getRuntime().availableProcessors());
+        processorPool.setNumThreads(1);
 
-        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        readerExecutor = Executors.newFixedThreadPool(MAX_READER_THREADS);
+        writerExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        FilePrefetcher.setMaxOutstandingReads(virtualThreads ? VIRTUAL_PREFETCHED_FILES : PREFETCHED_FILES_PER_READER);
+        scheduler = new JobScheduler(readBuffer, virtualThreads ? VIRTUAL_MAX_IN_FLIGHT : JobScheduler.DEFAULT_MAX_IN_FLIGHT);
 
         double buttonPreferredHeight = 27.0;
 
@@ -79,6 +117,9 @@ class MainWindow {
         appStats.addFilter("Oil4");
         appStats.addFilter("Median");
         appStats.addFilter("DPMedian");
+        appStats.addFilter("Median5");
+        appStats.addFilter("Median9");
+        appStats.addFilter("Median15");
         appStats.addFilter("DPEdge");
         appStats.addFilter("DPFunk1");
         appStats.addFilter("DPFunk2");
@@ -124,24 +165,110 @@ class MainWindow {
 
         slider.valueProperty().addListener((observableValue, oldValue, newValue) -> {
             imagesValueLabel.setText(String.valueOf((newValue.intValue())));
-            additionalProcessorThreads = newValue.intValue() - 1;
 
-            // kill existing threads in thread pool
-            executor.shutdownNow();
-
-            // System.out.println("Total Number of threads running BEFORE CREATION: " + Thread.activeCount());
+            // Add or retire processor threads (retired threads finish their current image first)
+            processorPool.setNumThreads(newValue.intValue());
+        });
 
-            // (Re)Create thread pool with max being the num of available processors
-            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        // Checkbox to let the number of processor threads be adjusted automatically
+        final CheckBox autoThreadsCheckBox = new CheckBox("auto");
+        autoThreadsCheckBox.setId("autoThreadsCheckBox");
+        autoThreadsCheckBox.selectedProperty().addListener((observableValue, oldValue, newValue) -> {
+            slider.setDisable(newValue);
+            processorPool.setAutoScaling(newValue);
+        });
 
-            for (int i = 0; i < this.additionalProcessorThreads; i++) {
-                executor.execute(new ProcessorThread(processBuffer, writeBuffer));
+        // Slider for # reader threads
+        this.readersSlider = new Slider(1, MAX_READER_THREADS, 1);
+        final Label readersLabel = new Label("#readers");
+        readersSlider.setShowTickLabels(true);
+        readersSlider.setShowTickMarks(true);
+        readersSlider.setSnapToTicks(true);
+        readersSlider.setBlockIncrement(1);
+        readersSlider.setMajorTickUnit(1);
+        readersSlider.setMinorTickCount(0);
+        readersSlider.setPrefWidth(150);
+
+        readersSlider.valueProperty().addListener((observableValue, oldValue, newValue) -> {
+            additionalReaderThreads = newValue.intValue() - 1;
+
+            // kill existing reader threads in the reader thread pool (they are idle, since no job is running)
+            readerExecutor.shutdownNow();
+            readerExecutor = Executors.newFixedThreadPool(MAX_READER_THREADS);
+
+            for (int i = 0; i < this.additionalReaderThreads; i++) {
+                readerExecutor.execute(new ReaderThread(readBuffer, processBuffer));
             }
 
-            // System.out.println("Total Number of threads running AFTER CREATION: " + Thread.activeCount());
+            // Keep enough files read in memory ahead of the reader threads
+            FilePrefetcher.setMaxOutstandingReads(newValue.intValue() * PREFETCHED_FILES_PER_READER);
+        });
 
+        // Slider for # writer threads
+        this.writersSlider = new Slider(1, Runtime.getRuntime().availableProcessors(), 1);
+        final Label writersLabel = new Label("#writers");
+        writersSlider.setShowTickLabels(true);
+        writersSlider.setShowTickMarks(true);
+        writersSlider.setSnapToTicks(true);
+        writersSlider.setBlockIncrement(1);
+        writersSlider.setMajorTickUnit(1);
+        writersSlider.setMinorTickCount(0);
+        writersSlider.setPrefWidth(150);
+
+        writersSlider.valueProperty().addListener((observableValue, oldValue, newValue) -> {
+            additionalWriterThreads = newValue.intValue() - 1;
+            JpegEncoder.setMaxPooledEncoders(newValue.intValue());
+
+            // kill existing writer threads in the writer thread pool (they are idle, since no job is running)
+            writerExecutor.shutdownNow();
+            writerExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+            for (int i = 0; i < this.additionalWriterThreads; i++) {
+                writerExecutor.execute(new WriterThread(writeBuffer));
+            }
         });
 
+        // Slider for the JPEG quality of output images
+        this.qualitySlider = new Slider(0.1, 1.0, JpegEncoder.getQuality());
+        final Label qualityLabel = new Label("quality");
+        qualitySlider.setShowTickLabels(true);
+        qualitySlider.setShowTickMarks(true);
+        qualitySlider.setMajorTickUnit(0.3);
+        qualitySlider.setBlockIncrement(0.05);
+        qualitySlider.setPrefWidth(150);
+
+        qualitySlider.valueProperty().addListener((observableValue, oldValue, newValue) ->
+                JpegEncoder.setQuality(newValue.floatValue()));
+
+        // Slider for the memory budget of the work units in the pipeline (see MemoryBudget)
+        this.memorySlider = new Slider(10, 90, 50);
+        final Label memoryLabel = new Label("memory %");
+        memorySlider.setShowTickLabels(true);
+        memorySlider.setShowTickMarks(true);
+        memorySlider.setSnapToTicks(true);
+        memorySlider.setBlockIncrement(10);
+        memorySlider.setMajorTickUnit(20);
+        memorySlider.setMinorTickCount(1);
+        memorySlider.setPrefWidth(150);
+        MemoryBudget.setBudgetPercent((int) memorySlider.getValue());
+
+        memorySlider.valueProperty().addListener((observableValue, oldValue, newValue) ->
+                MemoryBudget.setBudgetPercent(newValue.intValue()));
+
+        // Label that shows how much of the memory budget is used (updated periodically)
+        final Label memoryUseLabel = new Label();
+        Timeline memoryUseTimeline = new Timeline(new KeyFrame(Duration.millis(250), e -> {
+            memoryUseLabel.setText("used: " + MemoryBudget.getUsedBytes() / (1024 * 1024) + " / " +
+                    MemoryBudget.getBudgetBytes() / (1024 * 1024) + " MB");
+
+            // In auto mode, also show the number of processor threads chosen by the pool
+            if (autoThreadsCheckBox.isSelected()) {
+                slider.setValue(processorPool.getNumThreads());
+            }
+        }));
+        memoryUseTimeline.setCycleCount(Animation.INDEFINITE);
+        memoryUseTimeline.play();
+
         // Slider for # dp threads
         this.dpThreadsSlider = new Slider(1, Runtime.getRuntime().availableProcessors(), 1);
         final Label dpThreadsLabel = new Label("#dp_threads");
@@ -155,11 +282,13 @@ class MainWindow {
 
         dpThreadsSlider.valueProperty().addListener((observableValue, oldValue, newValue) -> {
             this.numDPThreads = newValue.intValue();
+            // Resize the pool shared by all data-parallel filters
+            DPThreadPool.setNumThreads(this.numDPThreads);
         });
 
         this.fileListWithViewPort = new FileListWithViewPort(
                 windowWidth * 0.98,
-                windowHeight - 3 * buttonPreferredHeight - 3 * 5,
+                windowHeight - 4 * buttonPreferredHeight - 4 * 5,
                 true);
 
         // Listen for the "nothing is selected" property of the widget
@@ -170,8 +299,14 @@ class MainWindow {
         addFilesButton.setOnAction(e -> addFiles(selectFilesWithChooser()));
 
         quitButton.setOnAction(e -> {
-            // kill existing threads in thread pool
-            executor.shutdownNow();
+            // kill existing threads in thread pools
+            readerExecutor.shutdownNow();
+            writerExecutor.shutdownNow();
+
+            // let the stage threads waiting on buffers terminate
+            readBuffer.shutdown();
+            processBuffer.shutdown();
+            writeBuffer.shutdown();
 
             // If the button is enabled, it's fine to quit
             this.primaryStage.close();
@@ -181,22 +316,24 @@ class MainWindow {
             this.quitButton.setDisable(true);
             this.pendingJobCount += 1;
             this.jobID += 1;
-            this.slider.setDisable(true);
             this.dpThreadsSlider.setDisable(true);
+            this.readersSlider.setDisable(true);
+            this.writersSlider.setDisable(true);
 
             JobWindow jw = new JobWindow(
                     (int) (windowWidth * 0.8), (int) (windowHeight * 0.8),
                     this.primaryStage.getX() + 100 + this.pendingJobCount * 10,
                     this.primaryStage.getY() + 50 + this.pendingJobCount * 10,
                     this.jobID, new ArrayList<>(this.fileListWithViewPort.getSelection()),
-                    appStats, this.readBuffer, this.numDPThreads);
+                    appStats, this.scheduler);
 
             jw.addCloseListener(() -> {
                 this.pendingJobCount -= 1;
                 if (this.pendingJobCount == 0) {
                     this.quitButton.setDisable(false);
-                    this.slider.setDisable(false);
                     this.dpThreadsSlider.setDisable(false);
+                    this.readersSlider.setDisable(false);
+                    this.writersSlider.setDisable(false);
                 }
             });
         });
@@ -222,10 +359,27 @@ class MainWindow {
         row.getChildren().add(imagesInRam);
         row.getChildren().add(slider);
         row.getChildren().add(imagesValueLabel);
+        row.getChildren().add(autoThreadsCheckBox);
         row.getChildren().add(dpThreadsLabel);
         row.getChildren().add(dpThreadsSlider);
+        if (!virtualThreads) {
+            row.getChildren().add(readersLabel);
+            row.getChildren().add(readersSlider);
+        }
         layout.getChildren().add(row);
 
+        HBox row2 = new HBox(8);
+        if (!virtualThreads) {
+            row2.getChildren().add(writersLabel);
+            row2.getChildren().add(writersSlider);
+        }
+        row2.getChildren().add(qualityLabel);
+        row2.getChildren().add(qualitySlider);
+        row2.getChildren().add(memoryLabel);
+        row2.getChildren().add(memorySlider);
+        row2.getChildren().add(memoryUseLabel);
+        layout.getChildren().add(row2);
+
         Scene scene = new Scene(layout, windowWidth, windowHeight);
         this.primaryStage.setScene(scene);
         this.primaryStage.setResizable(false);
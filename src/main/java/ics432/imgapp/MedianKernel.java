@@ -0,0 +1,226 @@
+package ics432.imgapp;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A helper class that implements the 3x3 median kernel shared by MedianFilter and
+ * DPMedianFilter. Pixels are processed in row-major order directly on the arrays
+ * backing the images when possible, and without any per-pixel allocation.
+ *
+ * The output is bit-identical to the original implementation, which sorted each
+ * channel's samples as (signed) Java bytes: channel values 128-255 therefore sort
+ * before values 0-127, and at the image border (where the window is clipped) the
+ * upper median of the remaining samples is picked. The output alpha is always 0.
+ */
+class MedianKernel {
+
+    /**
+     * Method to apply the median kernel to a band of rows
+     *
+     * @param input   The input image
+     * @param output  The output image (same size as the input image)
+     * @param start   The first row to compute
+     * @param stop    The row after the last row to compute
+     * @param kernels The SIMD kernels to use for interior pixels (or null to only use scalar code)
+     */
+    static void apply(BufferedImage input, BufferedImage output, int start, int stop, PixelKernels kernels) {
+        int width = input.getWidth();
+        int height = input.getHeight();
+        if (start >= stop) {
+            return;
+        }
+
+        int[] srcInts = RasterAccess.intPixels(input);
+        int[] dstInts = RasterAccess.intPixels(output);
+        if (srcInts != null && dstInts != null) {
+            medianRows(srcInts, 0, dstInts, 0, width, height, start, stop, kernels);
+            return;
+        }
+
+        byte[] srcBytes = RasterAccess.bytePixels(input);
+        byte[] dstBytes = RasterAccess.bytePixels(output);
+        if (srcBytes != null && dstBytes != null) {
+            medianRows(srcBytes, dstBytes, width, height, start, stop, kernels);
+            return;
+        }
+
+        // Any other layout: go through the (bulk) getRGB/setRGB methods one band at a time
+        int srcY0 = Math.max(0, start - 1);
+        int srcY1 = Math.min(height, stop + 1);
+        int[] src = input.getRGB(0, srcY0, width, srcY1 - srcY0, null, 0, width);
+        int[] dst = new int[(stop - start) * width];
+        medianRows(src, srcY0, dst, start, width, height, start, stop, kernels);
+        output.setRGB(0, start, width, stop - start, dst, 0, width);
+    }
+
+    /**
+     * Helper method to compute median rows on packed (0xAARRGGBB) pixel arrays
+     *
+     * @param src    The source pixels, starting at row srcY0
+     * @param srcY0  The image row of the first row in src
+     * @param dst    The destination pixels, starting at row dstY0
+     * @param dstY0  The image row of the first row in dst
+     * @param width  The image width
+     * @param height The image height
+     * @param start  The first row to compute
+     * @param stop   The row after the last row to compute
+     * @param kernels The SIMD kernels (or null)
+     */
+    private static void medianRows(int[] src, int srcY0, int[] dst, int dstY0, int width, int height,
+                                   int start, int stop, PixelKernels kernels) {
+        int[] scratch = new int[9];
+
+        for (int y = start; y < stop; y++) {
+            int out = (y - dstY0) * width;
+
+            if (y == 0 || y == height - 1 || width < 3) {
+                for (int x = 0; x < width; x++) {
+                    dst[out + x] = borderMedian(src, srcY0, width, height, x, y, scratch);
+                }
+                continue;
+            }
+
+            dst[out] = borderMedian(src, srcY0, width, height, 0, y, scratch);
+            int mid = (y - srcY0) * width;
+            int top = mid - width;
+            int bot = mid + width;
+            int first = kernels == null ? 1 : kernels.median3x3(src, mid, dst, out, width);
+            for (int x = first; x < width - 1; x++) {
+                int p0 = src[top + x - 1], p1 = src[top + x], p2 = src[top + x + 1];
+                int p3 = src[mid + x - 1], p4 = src[mid + x], p5 = src[mid + x + 1];
+                int p6 = src[bot + x - 1], p7 = src[bot + x], p8 = src[bot + x + 1];
+
+                int r = med9((byte) (p0 >> 16), (byte) (p1 >> 16), (byte) (p2 >> 16),
+                        (byte) (p3 >> 16), (byte) (p4 >> 16), (byte) (p5 >> 16),
+                        (byte) (p6 >> 16), (byte) (p7 >> 16), (byte) (p8 >> 16));
+                int g = med9((byte) (p0 >> 8), (byte) (p1 >> 8), (byte) (p2 >> 8),
+                        (byte) (p3 >> 8), (byte) (p4 >> 8), (byte) (p5 >> 8),
+                        (byte) (p6 >> 8), (byte) (p7 >> 8), (byte) (p8 >> 8));
+                int b = med9((byte) p0, (byte) p1, (byte) p2, (byte) p3, (byte) p4,
+                        (byte) p5, (byte) p6, (byte) p7, (byte) p8);
+
+                dst[out + x] = ((r & 0xFF) << 16) | ((g & 0xFF) << 8) | (b & 0xFF);
+            }
+            dst[out + width - 1] = borderMedian(src, srcY0, width, height, width - 1, y, scratch);
+        }
+    }
+
+    /**
+     * Helper method to compute median rows on interleaved (B, G, R) byte arrays
+     *
+     * @param src    The source samples
+     * @param dst    The destination samples
+     * @param width  The image width
+     * @param height The image height
+     * @param start  The first row to compute
+     * @param stop   The row after the last row to compute
+     * @param kernels The SIMD kernels (or null)
+     */
+    private static void medianRows(byte[] src, byte[] dst, int width, int height, int start, int stop,
+                                   PixelKernels kernels) {
+        int[] scratch = new int[9];
+        int stride = 3 * width;
+
+        for (int y = start; y < stop; y++) {
+            int row = y * stride;
+
+            if (y == 0 || y == height - 1 || width < 3) {
+                for (int x = 0; x < width; x++) {
+                    borderMedian(src, dst, width, height, x, y, scratch);
+                }
+                continue;
+            }
+
+            borderMedian(src, dst, width, height, 0, y, scratch);
+            int first = kernels == null ? row + 3 : kernels.median3x3(src, dst, row, stride);
+            for (int i = first; i < row + stride - 3; i++) {
+                int t = i - stride;
+                int b = i + stride;
+                dst[i] = (byte) med9(src[t - 3], src[t], src[t + 3],
+                        src[i - 3], src[i], src[i + 3],
+                        src[b - 3], src[b], src[b + 3]);
+            }
+            borderMedian(src, dst, width, height, width - 1, y, scratch);
+        }
+    }
+
+    /**
+     * Helper method to compute the median of a (possibly clipped) window on a packed pixel array
+     *
+     * @return the median pixel value
+     */
+    private static int borderMedian(int[] src, int srcY0, int width, int height, int x, int y, int[] scratch) {
+        int result = 0;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int n = 0;
+            for (int i = Math.max(0, x - 1); i <= Math.min(width - 1, x + 1); i++) {
+                for (int j = Math.max(0, y - 1); j <= Math.min(height - 1, y + 1); j++) {
+                    scratch[n++] = (byte) (src[(j - srcY0) * width + i] >> shift);
+                }
+            }
+            result |= (selectMedian(scratch, n) & 0xFF) << shift;
+        }
+        return result;
+    }
+
+    /**
+     * Helper method to compute the median of a (possibly clipped) window on an interleaved byte array
+     */
+    private static void borderMedian(byte[] src, byte[] dst, int width, int height, int x, int y, int[] scratch) {
+        for (int c = 0; c < 3; c++) {
+            int n = 0;
+            for (int i = Math.max(0, x - 1); i <= Math.min(width - 1, x + 1); i++) {
+                for (int j = Math.max(0, y - 1); j <= Math.min(height - 1, y + 1); j++) {
+                    scratch[n++] = src[(j * width + i) * 3 + c];
+                }
+            }
+            dst[(y * width + x) * 3 + c] = (byte) selectMedian(scratch, n);
+        }
+    }
+
+    /**
+     * Helper method to sort the first n values of an array (insertion sort) and
+     * to return the value at index n/2
+     */
+    private static int selectMedian(int[] values, int n) {
+        for (int i = 1; i < n; i++) {
+            int v = values[i];
+            int j = i - 1;
+            while (j >= 0 && values[j] > v) {
+                values[j + 1] = values[j];
+                j--;
+            }
+            values[j + 1] = v;
+        }
+        return values[n / 2];
+    }
+
+    /**
+     * Helper method to compute the median of 9 values with a fixed 19-exchange
+     * sorting network (Paeth / Devillard)
+     *
+     * @return the median value
+     */
+    private static int med9(int p0, int p1, int p2, int p3, int p4, int p5, int p6, int p7, int p8) {
+        int t;
+        t = Math.min(p1, p2); p2 = Math.max(p1, p2); p1 = t;
+        t = Math.min(p4, p5); p5 = Math.max(p4, p5); p4 = t;
+        t = Math.min(p7, p8); p8 = Math.max(p7, p8); p7 = t;
+        t = Math.min(p0, p1); p1 = Math.max(p0, p1); p0 = t;
+        t = Math.min(p3, p4); p4 = Math.max(p3, p4); p3 = t;
+        t = Math.min(p6, p7); p7 = Math.max(p6, p7); p6 = t;
+        t = Math.min(p1, p2); p2 = Math.max(p1, p2); p1 = t;
+        t = Math.min(p4, p5); p5 = Math.max(p4, p5); p4 = t;
+        t = Math.min(p7, p8); p8 = Math.max(p7, p8); p7 = t;
+        p3 = Math.max(p0, p3);
+        p5 = Math.min(p5, p8);
+        t = Math.min(p4, p7); p7 = Math.max(p4, p7); p4 = t;
+        p6 = Math.max(p3, p6);
+        p4 = Math.max(p1, p4);
+        p2 = Math.min(p2, p5);
+        p4 = Math.min(p4, p7);
+        t = Math.min(p4, p2); p2 = Math.max(p4, p2); p4 = t;
+        p4 = Math.max(p6, p4);
+        return Math.min(p4, p2);
+    }
+}
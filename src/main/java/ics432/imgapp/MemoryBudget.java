@@ -0,0 +1,141 @@
+package ics432.imgapp;
+
+/**
+ * A helper class that implements admission control for work units, based on a
+ * memory budget (a percentage of the maximum heap size). Before a work unit enters
+ * the pipeline, the memory it will need (its "footprint") is estimated from the size of
+ * its input file, so that no file has to be read before it is admitted. The unit only
+ * enters the pipeline once its footprint fits in the budget (see JobScheduler, which
+ * sends a unit of another job meanwhile); its footprint is corrected
+ * once its image dimensions are known (by its reader), and given back once it has been
+ * written. So there can be many small images, but only a few huge ones, in the pipeline
+ * at a time.
+ */
+class MemoryBudget {
+
+    // The number of bytes per pixel of a decoded image, its BufferedImage copy, and the filtered image
+    private static final long BYTES_PER_PIXEL = 3 * 4;
+    // The number of bytes per pixel of the second buffer used by chains of filters (see FilterChain)
+    private static final long CHAIN_BYTES_PER_PIXEL = 4;
+    // The estimated number of pixels per byte of a JPEG file (most photos take 1 to 4 bits per
+    // pixel), used until the image dimensions are known
+    private static final long PIXELS_PER_FILE_BYTE = 8;
+    // The state of a streaming JPEG decoder and encoder: an MCU row (16 rows of 3 samples) each,
+    // plus their tables and stream buffers
+    private static final long CODEC_BYTES_PER_COLUMN = 2 * 16 * 3;
+    private static final long CODEC_BYTES = 1024 * 1024;
+
+    private static int budgetPercent = 50;
+    private static long usedBytes = 0;
+
+    /**
+     * Method to set the budget
+     *
+     * @param percent The budget, as a percentage of the maximum heap size
+     */
+    static synchronized void setBudgetPercent(int percent) {
+        budgetPercent = percent;
+    }
+
+    /**
+     * Method to get the budget
+     *
+     * @return the budget, in bytes
+     */
+    static synchronized long getBudgetBytes() {
+        return Runtime.getRuntime().maxMemory() / 100 * budgetPercent;
+    }
+
+    /**
+     * Method to get the part of the budget used by the work units in the pipeline
+     *
+     * @return the used budget, in bytes
+     */
+    static synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Method to use a footprint if it fits in the budget (without waiting). A footprint
+     * larger than the whole budget fits when the pipeline is empty, so that huge images
+     * are processed (alone) rather than never.
+     *
+     * @param footprint The footprint, in bytes
+     *
+     * @return true if the footprint fits, and is now used
+     */
+    static synchronized boolean tryAcquire(long footprint) {
+        if (usedBytes > 0 && usedBytes + footprint > getBudgetBytes()) {
+            return false;
+        }
+        usedBytes += footprint;
+        return true;
+    }
+
+    /**
+     * Method to give back a footprint
+     *
+     * @param footprint The footprint, in bytes
+     */
+    static synchronized void release(long footprint) {
+        usedBytes -= footprint;
+    }
+
+    /**
+     * Method to change a footprint in use (e.g., once the image dimensions of a work unit are
+     * known), without waiting for it to fit in the budget
+     *
+     * @param oldFootprint The footprint in use, in bytes
+     * @param newFootprint The new footprint, in bytes
+     */
+    static synchronized void resize(long oldFootprint, long newFootprint) {
+        usedBytes += newFootprint - oldFootprint;
+    }
+
+    /**
+     * Method to estimate the number of pixels of an image from the size of its (JPEG) file,
+     * before its header has been read
+     *
+     * @param fileBytes The size of the file, in bytes
+     *
+     * @return the number of pixels
+     */
+    static long estimatePixels(long fileBytes) {
+        return PIXELS_PER_FILE_BYTE * fileBytes;
+    }
+
+    /**
+     * Method to compute the footprint of an image file once it is decoded and filtered. A chain
+     * of filters needs one more image, since intermediate images ping-pong between two buffers.
+     *
+     * @param fileBytes  The size of the file, in bytes
+     * @param pixels     The number of pixels of the image
+     * @param filterName The filter (or chain of filters) applied to the image
+     *
+     * @return the footprint, in bytes
+     */
+    static long footprintOf(long fileBytes, long pixels, String filterName) {
+        long bytesPerPixel = BYTES_PER_PIXEL;
+        if (FilterChain.split(filterName).size() > 1) {
+            bytesPerPixel += CHAIN_BYTES_PER_PIXEL;
+        }
+        return fileBytes + bytesPerPixel * pixels;
+    }
+
+    /**
+     * Method to compute the footprint of an image that is streamed (see ScanlineStream): its ring
+     * of decoded rows and the input and output images of a band (plus the second buffer of a chain
+     * of filters), each of BAND_ROWS + 2 * halo rows, and the decoder's and encoder's state
+     *
+     * @param width      The image width
+     * @param halo       The halo of the filter (see WorkUnitStreaming.getHalo())
+     * @param filterName The filter (or chain of filters) applied to the image
+     *
+     * @return the footprint, in bytes
+     */
+    static long streamingFootprint(long width, int halo, String filterName) {
+        int numBands = FilterChain.split(filterName).size() > 1 ? 4 : 3;
+        long bandBytes = (ScanlineStream.BAND_ROWS + 2L * halo) * width * 4;
+        return numBands * bandBytes + CODEC_BYTES_PER_COLUMN * width + CODEC_BYTES;
+    }
+}
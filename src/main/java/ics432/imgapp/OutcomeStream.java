@@ -0,0 +1,72 @@
+package ics432.imgapp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A helper class that implements the append-only stream of a job's outcomes. Writer threads
+ * append outcomes to it, while consumers (e.g., the JobWindow, once per animation frame) read
+ * the outcomes appended since their previous read, without ever blocking the writers.
+ *
+ * Outcomes are stored in fixed-size chunks, which are never moved once allocated, and the
+ * number of outcomes is published through a volatile field: a consumer that has read it
+ * can read that many outcomes without locking.
+ */
+class OutcomeStream {
+
+    // The number of outcomes per chunk (a power of 2)
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private volatile Job.ImgTransformOutcome[][] chunks = new Job.ImgTransformOutcome[1][];
+    private volatile int size = 0;
+
+    /**
+     * Method to append an outcome to the stream (called by writer threads)
+     *
+     * @param outcome The outcome
+     */
+    synchronized void append(Job.ImgTransformOutcome outcome) {
+        int chunk = this.size >>> CHUNK_BITS;
+        Job.ImgTransformOutcome[][] chunks = this.chunks;
+        if (chunk == chunks.length) {
+            Job.ImgTransformOutcome[][] grown = new Job.ImgTransformOutcome[2 * chunks.length][];
+            System.arraycopy(chunks, 0, grown, 0, chunks.length);
+            chunks = grown;
+            this.chunks = grown;
+        }
+        if (chunks[chunk] == null) {
+            chunks[chunk] = new Job.ImgTransformOutcome[CHUNK_SIZE];
+        }
+        chunks[chunk][this.size & (CHUNK_SIZE - 1)] = outcome;
+        // Publish the outcome (the volatile write makes it visible to consumers that read the size)
+        this.size = this.size + 1;
+    }
+
+    /**
+     * Method to get the number of outcomes in the stream
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Method to read outcomes from the stream
+     *
+     * @param from The index of the first outcome to read
+     * @param to   The index after the last outcome to read (at most size())
+     *
+     * @return the outcomes
+     */
+    List<Job.ImgTransformOutcome> read(int from, int to) {
+        if (to > this.size) {
+            throw new IndexOutOfBoundsException("Outcome " + (to - 1) + " out of " + this.size);
+        }
+        Job.ImgTransformOutcome[][] chunks = this.chunks;
+        List<Job.ImgTransformOutcome> outcomes = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            outcomes.add(chunks[i >>> CHUNK_BITS][i & (CHUNK_SIZE - 1)]);
+        }
+        return outcomes;
+    }
+}
@@ -0,0 +1,165 @@
+package ics432.imgapp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A helper class that implements a persistent, content-addressed cache of output images,
+ * so that re-running a job over unchanged inputs doesn't recompute them. An output image
+ * is keyed by a SHA-256 hash of its input file's bytes and of everything else it depends
+ * on (the filter, the JPEG quality, etc., see WorkUnit.getCacheVariant). On a hit, the
+ * cached image is hard-linked (or, if that fails, copied) to the output path, instead of
+ * decoding, processing and encoding the input image.
+ *
+ * Cached images are files named after their key in the cache directory (the
+ * "imgapp.cache.dir" property, by default ~/.ics432imgapp/output-cache). The total size
+ * of the cache is capped (the "imgapp.cache.maxMB" property, by default 1024, with 0 to
+ * disable the cache), and the least recently used images are evicted first. The recency
+ * order survives restarts, since hits update the modification time of cached images.
+ * The cached images are managed by a DiskLruCache, so only files named after a key are
+ * cached images: other files in the cache directory are left alone.
+ */
+class OutputCache {
+
+    // The cached images, named after their key (i.e., 64 hex digits)
+    private static final DiskLruCache files = new DiskLruCache("output cache",
+            Paths.get(System.getProperty("imgapp.cache.dir",
+                    Paths.get(System.getProperty("user.home"), ".ics432imgapp", "output-cache").toString())),
+            ".jpg", "[0-9a-f]{64}", Long.getLong("imgapp.cache.maxMB", 1024) * 1024 * 1024);
+
+    private static long hits = 0;
+    private static long misses = 0;
+
+    /**
+     * Method to set the maximum size of the cache (the least recently used images are evicted
+     * if it is exceeded)
+     *
+     * @param bytes The maximum size, in bytes (or 0 to disable the cache)
+     */
+    static void setMaxBytes(long bytes) {
+        files.setMaxBytes(bytes);
+    }
+
+    /**
+     * Method to check whether the cache is enabled
+     */
+    static boolean isEnabled() {
+        return files.getMaxBytes() > 0;
+    }
+
+    /**
+     * Method to compute the key of an output image
+     *
+     * @param inputBytes The input file's bytes (or null to read the input file)
+     * @param inputFile  The input file path
+     * @param variant    Everything else the output image depends on
+     *
+     * @return the key
+     *
+     * @throws IOException if the input file cannot be read
+     */
+    static String computeKey(byte[] inputBytes, Path inputFile, String variant) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        if (inputBytes != null) {
+            digest.update(inputBytes);
+        } else {
+            try (InputStream in = Files.newInputStream(inputFile)) {
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, n);
+                }
+            }
+        }
+        digest.update((byte) 0);
+        digest.update(variant.getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Method to put the cached image of a key (if any) at an output path
+     *
+     * @param key        The key
+     * @param outputFile The output path (any existing file is replaced)
+     *
+     * @return true on a hit, false on a miss
+     */
+    static boolean restore(String key, Path outputFile) {
+        Path cached = files.get(key);
+        if (cached == null) {
+            synchronized (OutputCache.class) {
+                misses++;
+            }
+            return false;
+        }
+
+        try {
+            Files.deleteIfExists(outputFile);
+            try {
+                Files.createLink(outputFile, cached);
+            } catch (IOException | UnsupportedOperationException e) {
+                // E.g., the output directory is on another file system
+                Files.copy(cached, outputFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // The cached image was evicted (or deleted) in the meantime
+            files.remove(key);
+            synchronized (OutputCache.class) {
+                misses++;
+            }
+            return false;
+        }
+        files.touch(key);
+
+        synchronized (OutputCache.class) {
+            hits++;
+        }
+        return true;
+    }
+
+    /**
+     * Method to add an output image to the cache (it is copied, so the output file can
+     * then be modified)
+     *
+     * @param key        The key
+     * @param outputFile The output image path
+     */
+    static void store(String key, Path outputFile) {
+        if (files.contains(key)) {
+            return;
+        }
+        try {
+            files.put(key, tmp -> Files.copy(outputFile, tmp, StandardCopyOption.REPLACE_EXISTING));
+        } catch (IOException e) {
+            System.err.println("Cannot add " + outputFile + " to the output cache (" + e.getMessage() + ")");
+        }
+    }
+
+    /**
+     * Method to get a summary of the cache's statistics
+     */
+    static synchronized String getSummary() {
+        long lookups = hits + misses;
+        return String.format("%d hits, %d misses (%.1f%% hit rate), %d evictions, %d / %d MB",
+                hits, misses, lookups == 0 ? 0.0 : 100.0 * hits / lookups, files.getEvictions(),
+                files.getUsedBytes() / (1024 * 1024), files.getMaxBytes() / (1024 * 1024));
+    }
+}
@@ -0,0 +1,105 @@
+package ics432.imgapp;
+
+/**
+ * Interface implemented by SIMD versions of the inner loops of some filters. Each
+ * method processes as many pixels as it can with full-width vectors, starting at
+ * the first pixel it is given, and returns where it stopped, so that callers can
+ * finish the remaining pixels with their scalar code. All methods must produce
+ * exactly the same values as the corresponding scalar code.
+ *
+ * The only implementation (VectorPixelKernels) uses the incubating Java Vector API.
+ * It is only compiled by the "vector" Maven profile (JDK 16 or later), and it can
+ * only be used if the JVM was started with "--add-modules jdk.incubator.vector".
+ */
+interface PixelKernels {
+
+    /**
+     * Method to invert the red, green and blue channels of packed pixels
+     *
+     * @param src  The source pixels
+     * @param dst  The destination pixels
+     * @param from The index of the first pixel
+     * @param to   The index after the last pixel
+     *
+     * @return the index of the first pixel that was not processed
+     */
+    int invert(int[] src, int[] dst, int from, int to);
+
+    /**
+     * Method to solarize the red, green and blue channels of packed pixels
+     *
+     * @param src  The source pixels
+     * @param dst  The destination pixels
+     * @param from The index of the first pixel
+     * @param to   The index after the last pixel
+     *
+     * @return the index of the first pixel that was not processed
+     */
+    int solarize(int[] src, int[] dst, int from, int to);
+
+    /**
+     * Method to compute the 3x3 median (in MedianKernel's signed-byte order) of the
+     * interior pixels of a row of packed pixels, starting at column 1
+     *
+     * @param src    The source pixels
+     * @param srcRow The index in src of the first pixel of the row
+     * @param dst    The destination pixels
+     * @param dstRow The index in dst of the first pixel of the row
+     * @param width  The image width
+     *
+     * @return the first column that was not processed
+     */
+    int median3x3(int[] src, int srcRow, int[] dst, int dstRow, int width);
+
+    /**
+     * Method to compute the 3x3 median (in MedianKernel's signed-byte order) of the
+     * interior samples of a row of interleaved 3-byte pixels, starting at the second pixel
+     *
+     * @param src    The source samples
+     * @param dst    The destination samples
+     * @param row    The index of the first sample of the row
+     * @param stride The number of samples in a row
+     *
+     * @return the index of the first sample that was not processed
+     */
+    int median3x3(byte[] src, byte[] dst, int row, int stride);
+
+    /**
+     * Method to compute the Sobel edge values (as in DPEdgeFilter) of the interior
+     * pixels of a row of packed pixels, starting at column 1
+     *
+     * @param src   The source pixels
+     * @param dst   The destination pixels
+     * @param row   The index of the first pixel of the row
+     * @param width The image width
+     *
+     * @return the first column that was not processed
+     */
+    int sobel(int[] src, int[] dst, int row, int width);
+
+    /**
+     * Method to get the SIMD kernels
+     *
+     * @return the kernels, or null if they are not available (in which case scalar code should be used)
+     */
+    static PixelKernels vectorized() {
+        return Holder.VECTORIZED;
+    }
+
+    /**
+     * Helper class to load the SIMD kernels once
+     */
+    class Holder {
+        private static final PixelKernels VECTORIZED = load();
+
+        private static PixelKernels load() {
+            try {
+                return (PixelKernels) Class.forName("ics432.imgapp.VectorPixelKernels")
+                        .getDeclaredConstructor().newInstance();
+            } catch (Exception | LinkageError e) {
+                System.err.println("SIMD kernels not available, using scalar code (" + e + ")");
+                return null;
+            }
+        }
+    }
+}
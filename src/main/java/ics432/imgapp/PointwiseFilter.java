@@ -0,0 +1,142 @@
+package ics432.imgapp;
+
+import java.awt.RenderingHints;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ColorModel;
+import java.util.List;
+
+/**
+ * A filter that maps each red, green and blue sample through a 256-entry table
+ * (alpha is kept), computing the same pixel values as the JHLabs InvertFilter and
+ * SolarizeFilter. A sequence of such filters (e.g., in a filter chain) is fused
+ * into a single table, and thus into a single pass over the pixels. Pixels are
+ * processed directly on the arrays backing the images when possible, with the
+ * SIMD kernels (if any) and then with the table.
+ */
+public class PointwiseFilter implements BufferedImageOp {
+
+    private final List<String> filterNames;
+    private final int[] table;
+    private final PixelKernels kernels;
+
+    /**
+     * Constructor
+     *
+     * @param filterName The filter's name ("Invert" or "Solarize")
+     * @param kernels    The SIMD kernels to use (or null to only use scalar code)
+     */
+    public PointwiseFilter(String filterName, PixelKernels kernels) {
+        this(List.of(filterName), kernels);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param filterNames The names of the filters to apply, in order (each one "Invert" or "Solarize")
+     * @param kernels     The SIMD kernels to use (or null to only use scalar code), which are
+     *                    only used for a single filter
+     */
+    public PointwiseFilter(List<String> filterNames, PixelKernels kernels) {
+        this.filterNames = List.copyOf(filterNames);
+        this.kernels = filterNames.size() == 1 ? kernels : null;
+        this.table = new int[256];
+        for (int i = 0; i < 256; i++) {
+            this.table[i] = i;
+        }
+        for (String filterName : filterNames) {
+            for (int i = 0; i < 256; i++) {
+                this.table[i] = transfer(filterName, this.table[i]);
+            }
+        }
+    }
+
+    /**
+     * Method to check whether a filter can be implemented by this class
+     *
+     * @param filterName The filter's name
+     *
+     * @return true if the filter maps each sample independently of the others
+     */
+    public static boolean isPointwise(String filterName) {
+        return filterName.equals("Invert") || filterName.equals("Solarize");
+    }
+
+    /**
+     * Helper method to compute the value of a filter's table
+     *
+     * @param filterName The filter's name
+     * @param i          The sample value (0-255)
+     *
+     * @return the filtered sample value
+     */
+    private static int transfer(String filterName, int i) {
+        switch (filterName) {
+            case "Invert":
+                return 255 - i;
+            case "Solarize":
+                // As in SolarizeFilter (and its TransferFilter superclass)
+                float v = i / 255.0f;
+                float t = v > 0.5f ? 2 * (v - 0.5f) : 2 * (0.5f - v);
+                return Math.min(255, Math.max(0, (int) (255 * t)));
+            default:
+                throw new IllegalArgumentException("Not a pointwise filter: " + filterName);
+        }
+    }
+
+    public BufferedImage filter(BufferedImage inputImg, BufferedImage outputImg) {
+        int width = inputImg.getWidth();
+        int height = inputImg.getHeight();
+
+        // If second argument is null, then filter() method allocates the output image object, otherwise is uses the one passed in.
+        if (outputImg == null) {
+            // allocate the output image object
+            outputImg = new BufferedImage(width, height, inputImg.getType());
+        }
+
+        int[] src = RasterAccess.getPixels(inputImg);
+        int[] dst = RasterAccess.intPixels(outputImg);
+        if (dst == null) {
+            dst = new int[width * height];
+        }
+
+        int first = 0;
+        if (this.kernels != null) {
+            first = this.filterNames.get(0).equals("Invert") ?
+                    this.kernels.invert(src, dst, 0, src.length) :
+                    this.kernels.solarize(src, dst, 0, src.length);
+        }
+        for (int i = first; i < src.length; i++) {
+            int rgb = src[i];
+            dst[i] = (rgb & 0xFF000000) |
+                    (this.table[(rgb >> 16) & 0xFF] << 16) |
+                    (this.table[(rgb >> 8) & 0xFF] << 8) |
+                    this.table[rgb & 0xFF];
+        }
+
+        RasterAccess.setPixels(outputImg, dst);
+        return outputImg;
+    }
+
+    @Override
+    public BufferedImage createCompatibleDestImage(BufferedImage arg0, ColorModel arg1) {
+        return null;
+    }
+
+    @Override
+    public Rectangle2D getBounds2D(BufferedImage arg0) {
+        return null;
+    }
+
+    @Override
+    public Point2D getPoint2D(Point2D arg0, Point2D arg1) {
+        return null;
+    }
+
+    @Override
+    public RenderingHints getRenderingHints() {
+        return null;
+    }
+}
@@ -0,0 +1,184 @@
+package ics432.imgapp;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A class that holds the pool of processor threads, which can grow and shrink while
+ * jobs are running without losing work units: threads are retired with poison pills
+ * put in the process buffer, so each retired thread finishes its current unit (and
+ * the units queued before the pill) before it terminates.
+ *
+ * In auto mode, the number of threads is adjusted periodically: it shrinks when the
+ * processors keep up with the readers (i.e., the process buffer is empty), grows when
+ * units are waiting and the CPUs are not saturated, and an increase that lowered the
+ * throughput (in images/s) is undone.
+ */
+class ProcessorPool {
+
+    // The period of auto-scaling decisions
+    private static final long AUTO_SCALE_PERIOD_MS = 1000;
+    // Above this process CPU load (between 0 and 1), adding threads doesn't help
+    private static final double MAX_CPU_LOAD = 0.9;
+    // A throughput drop larger than this fraction is not noise
+    private static final double THROUGHPUT_TOLERANCE = 0.05;
+    // The number of periods without growth after an increase has been undone
+    private static final int HOLD_PERIODS = 5;
+
+    private final ProducerConsumer processBuffer;
+    private final ProducerConsumer writeBuffer;
+    private final int maxThreads;
+    private final AtomicLong processedUnits = new AtomicLong();
+
+    // The number of threads, not counting those that will take a poison pill
+    private int numThreads = 0;
+
+    private ScheduledExecutorService autoScaler;
+    private long lastCount;
+    private long lastTime;
+    private double lastThroughput;
+    private int lastResize;
+    private int holdPeriods;
+
+    /**
+     * Constructor
+     *
+     * @param processBuffer The buffer processor threads take work units from
+     * @param writeBuffer   The buffer processor threads put work units into
+     * @param maxThreads    The maximum number of threads
+     */
+    ProcessorPool(ProducerConsumer processBuffer, ProducerConsumer writeBuffer, int maxThreads) {
+        this.processBuffer = processBuffer;
+        this.writeBuffer = writeBuffer;
+        this.maxThreads = maxThreads;
+    }
+
+    /**
+     * Method to set the number of threads. New threads start right away, and
+     * retired threads terminate once they take a poison pill.
+     *
+     * @param n The number of threads (between 1 and the maximum number of threads)
+     */
+    synchronized void setNumThreads(int n) {
+        n = Math.max(1, Math.min(this.maxThreads, n));
+
+        while (this.numThreads < n) {
+            Thread thread = new Thread(new ProcessorThread(this.processBuffer, this.writeBuffer, this));
+            thread.setDaemon(true);
+            thread.start();
+            this.numThreads++;
+        }
+
+        // The pills are put by another thread, so that the caller (e.g., the JavaFX thread)
+        // never blocks on a full buffer
+        int retired = this.numThreads - n;
+        if (retired > 0) {
+            this.numThreads = n;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < retired; i++) {
+                    if (!this.processBuffer.put(new WorkUnit())) {
+                        break;
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Method to get the number of threads
+     *
+     * @return the number of threads (not counting the retired threads that are finishing their work)
+     */
+    synchronized int getNumThreads() {
+        return this.numThreads;
+    }
+
+    /**
+     * Method called by processor threads each time they have processed a work unit
+     */
+    void unitProcessed() {
+        this.processedUnits.incrementAndGet();
+    }
+
+    /**
+     * Method to turn auto mode on or off
+     *
+     * @param auto Whether the number of threads should be adjusted automatically
+     */
+    synchronized void setAutoScaling(boolean auto) {
+        if (auto && this.autoScaler == null) {
+            this.lastCount = this.processedUnits.get();
+            this.lastTime = System.nanoTime();
+            this.lastThroughput = 0;
+            this.lastResize = 0;
+            this.holdPeriods = 0;
+            this.autoScaler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ProcessorPool auto-scaler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.autoScaler.scheduleAtFixedRate(this::autoScale, AUTO_SCALE_PERIOD_MS, AUTO_SCALE_PERIOD_MS,
+                    TimeUnit.MILLISECONDS);
+        } else if (!auto && this.autoScaler != null) {
+            this.autoScaler.shutdownNow();
+            this.autoScaler = null;
+        }
+    }
+
+    /**
+     * Helper method to adjust the number of threads from the measured throughput,
+     * process buffer depth and CPU load (run periodically in auto mode)
+     */
+    private synchronized void autoScale() {
+        long count = this.processedUnits.get();
+        long time = System.nanoTime();
+        double throughput = (count - this.lastCount) * 1e9 / (time - this.lastTime);
+        this.lastCount = count;
+        this.lastTime = time;
+
+        int depth = this.processBuffer.getSize();
+        double cpuLoad = getProcessCpuLoad();
+
+        int n = this.numThreads;
+        int target = n;
+        if (this.holdPeriods > 0) {
+            this.holdPeriods--;
+        }
+        if (depth == 0) {
+            // The processors keep up with the readers, so fewer of them would do
+            target = n - 1;
+        } else if (this.lastResize > 0 && throughput < this.lastThroughput * (1 - THROUGHPUT_TOLERANCE)) {
+            // The last thread added made things worse
+            target = n - 1;
+            this.holdPeriods = HOLD_PERIODS;
+        } else if (this.holdPeriods == 0 && cpuLoad < MAX_CPU_LOAD) {
+            // Work units are waiting, and there are idle CPUs
+            target = n + 1;
+        }
+
+        this.lastThroughput = throughput;
+        this.lastResize = target - n;
+        if (target != n) {
+            setNumThreads(target);
+        }
+    }
+
+    /**
+     * Helper method to get the CPU load of the JVM process
+     *
+     * @return the load, between 0 and 1 (or a negative value if it is not available)
+     */
+    private static double getProcessCpuLoad() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+        }
+        return -1;
+    }
+}
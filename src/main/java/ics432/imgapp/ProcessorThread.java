@@ -1,27 +1,69 @@
 package ics432.imgapp;
 
+import java.io.IOException;
+
 public class ProcessorThread extends ThreadTime implements Runnable {
     private ProducerConsumer processBuffer;
     private ProducerConsumer writeBuffer;
+    private ProcessorPool pool;
 
     public ProcessorThread(ProducerConsumer processBuffer, ProducerConsumer writeBuffer) {
+        this(processBuffer, writeBuffer, null);
+    }
+
+    /**
+     * Constructor for a thread of a ProcessorPool
+     *
+     * @param processBuffer The buffer to take work units from
+     * @param writeBuffer   The buffer to put processed work units into
+     * @param pool          The pool (or null), which is told about each processed work unit
+     */
+    public ProcessorThread(ProducerConsumer processBuffer, ProducerConsumer writeBuffer, ProcessorPool pool) {
         this.processBuffer = processBuffer;
         this.writeBuffer = writeBuffer;
+        this.pool = pool;
     }
 
     public void run() {
         while (true) {
             WorkUnit unit = processBuffer.get();
+            if (unit == null || unit.isPoison()) {
+                // interrupted, or retired by the pool
+                break;
+            }
+            if (unit.getJob().dropIfCanceled(unit)) {
+                continue;
+            }
             long start = System.currentTimeMillis();
             try {
                 unit.processImage();
-            } catch (NullPointerException e) {
-                // ignore shutdownNow() error messages
-                break;
+            } catch (RuntimeException | Error e) {
+                // Report the failure, and drop the unit from the pipeline (the thread keeps processing units)
+                processingFailed(unit, e);
+                continue;
             }
             long end = System.currentTimeMillis();
             unit.getJob().processingTime += end - start;
-            this.writeBuffer.put(unit);
+            if (!this.writeBuffer.put(unit)) {
+                // interrupted
+                unit.failInterrupted();
+                break;
+            }
+            if (this.pool != null) {
+                this.pool.unitProcessed();
+            }
         }
     }
+
+    /**
+     * Helper method to report a work unit whose processing failed (e.g., a filter error, or
+     * an image too large for the heap), and to drop it from the pipeline
+     *
+     * @param unit  The work unit
+     * @param error The exception or error that was raised
+     */
+    static void processingFailed(WorkUnit unit, Throwable error) {
+        unit.fail(new IOException("Error while processing " + unit.getInputFile().toAbsolutePath() + " (" + error + ")",
+                error));
+    }
 }
@@ -1,34 +1,131 @@
 package ics432.imgapp;
 
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.List;
 
-public class ProducerConsumer {
-    private final ArrayBlockingQueue<WorkUnit> buffer;
+/**
+ * A bounded buffer of work units between two stages of the pipeline. There are two
+ * implementations, chosen at startup with the "imgapp.queue" system property:
+ * "blocking" (the default, BlockingProducerConsumer, an ArrayBlockingQueue) and "ring"
+ * (RingProducerConsumer, a lock-free ring buffer).
+ *
+ * Methods that wait return (or give up) when the calling thread is interrupted, with
+ * its interrupt status kept, and consumers get null once the buffer has been shut down
+ * and emptied, so that stage threads can terminate cleanly. A producer that gives up
+ * still owns the work units it could not put (see WorkUnit.fail()).
+ */
+public abstract class ProducerConsumer {
+    // The number of work units in the pipeline is bounded by the memory budget (see MemoryBudget),
+    // so the buffer capacity only bounds the number of (tiny) images waiting in a stage
+    static final int CAPACITY = 1024;
 
-    public ProducerConsumer() {
-        this.buffer = new ArrayBlockingQueue<>(16);
-    }
+    // The histogram of the time work units wait in the buffer (null until the buffer is named)
+    private volatile LatencyHistogram waitTimes = null;
 
-    public void put(WorkUnit workUnit) {
-        try{
-            this.buffer.put(workUnit);
-        }  catch (InterruptedException e) {
-            // e.printStackTrace();
-        }        
+    /**
+     * Method to create a buffer of the kind chosen by the "imgapp.queue" system property
+     *
+     * @return the buffer
+     */
+    public static ProducerConsumer create() {
+        return create(System.getProperty("imgapp.queue", "blocking"));
     }
 
-    public WorkUnit get() {
-        WorkUnit workUnit = null;
-        try {
-           workUnit = this.buffer.take();
-        } catch (InterruptedException e) {
-            // e.printStackTrace();
+    /**
+     * Method to create a buffer of a given kind
+     *
+     * @param kind "blocking" or "ring"
+     *
+     * @return the buffer
+     */
+    public static ProducerConsumer create(String kind) {
+        switch (kind) {
+            case "blocking":
+                return new BlockingProducerConsumer(CAPACITY);
+            case "ring":
+                return new RingProducerConsumer(CAPACITY);
+            default:
+                throw new IllegalArgumentException("Unknown queue " + kind);
         }
-        return workUnit;
     }
 
-    public int getSize() {
-        return this.buffer.size();
+    /**
+     * Method to put a work unit in the buffer, waiting for room if needed
+     *
+     * @param workUnit The work unit
+     *
+     * @return false if the thread was interrupted while waiting (the unit was not put)
+     *
+     * @throws IllegalStateException if the buffer has been shut down
+     */
+    public abstract boolean put(WorkUnit workUnit);
+
+    /**
+     * Method to put work units in the buffer, in order, waiting for room if needed
+     *
+     * @param workUnits The work units
+     *
+     * @return the number of work units put (fewer than all of them if the thread was
+     * interrupted while waiting)
+     *
+     * @throws IllegalStateException if the buffer has been shut down
+     */
+    public abstract int putAll(List<WorkUnit> workUnits);
+
+    /**
+     * Method to take a work unit from the buffer, waiting for one if needed
+     *
+     * @return the work unit, or null if the thread was interrupted or the buffer has been shut down (and is empty)
+     */
+    public abstract WorkUnit get();
+
+    /**
+     * Method to take at least one (and at most max) work units from the buffer, waiting for one if needed
+     *
+     * @param workUnits The list to add the work units to
+     * @param max       The maximum number of work units to take
+     *
+     * @return the number of work units taken, or 0 if the thread was interrupted or the buffer
+     * has been shut down (and is empty)
+     */
+    public abstract int drainTo(List<WorkUnit> workUnits, int max);
+
+    /**
+     * Method to get the number of work units in the buffer
+     *
+     * @return the number of work units (only an estimate while the buffer is in use)
+     */
+    public abstract int getSize();
+
+    /**
+     * Method to shut the buffer down: nothing can be put in it anymore, and consumers
+     * get null once it is empty
+     */
+    public abstract void shutdown();
+
+    /**
+     * Method to name the buffer, so that the time work units wait in it is recorded (see LatencyMetrics)
+     *
+     * @param name The name (e.g., "read", for the buffer of the units waiting for a reader)
+     */
+    public void setName(String name) {
+        this.waitTimes = LatencyMetrics.getQueueWait(name);
+    }
+
+    /**
+     * Helper method for implementations to note that a work unit enters the buffer
+     */
+    static void enqueued(WorkUnit workUnit) {
+        workUnit.setEnqueueTime(System.nanoTime());
     }
 
+    /**
+     * Helper method for implementations to record the time a work unit waited in the buffer,
+     * once it has been taken
+     */
+    void dequeued(WorkUnit workUnit) {
+        LatencyHistogram waitTimes = this.waitTimes;
+        if (waitTimes != null && !workUnit.isPoison()) {
+            waitTimes.record(System.nanoTime() - workUnit.getEnqueueTime());
+        }
+    }
 }
@@ -0,0 +1,110 @@
+package ics432.imgapp;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * A helper class that gives filters direct access to the arrays backing a
+ * BufferedImage, so that pixels can be processed in row-major order without
+ * going through getRGB/setRGB one pixel at a time.
+ */
+class RasterAccess {
+
+    /**
+     * Helper method to get the packed pixel array of a TYPE_INT_RGB or TYPE_INT_ARGB image
+     *
+     * @param img The image
+     *
+     * @return the backing array (row-major, one int per pixel), or null if the image
+     * does not have that layout
+     */
+    static int[] intPixels(BufferedImage img) {
+        if (img.getType() != BufferedImage.TYPE_INT_RGB && img.getType() != BufferedImage.TYPE_INT_ARGB) {
+            return null;
+        }
+        WritableRaster raster = img.getRaster();
+        SampleModel sm = raster.getSampleModel();
+        if (!isUntranslated(img) || !(raster.getDataBuffer() instanceof DataBufferInt) ||
+                !(sm instanceof SinglePixelPackedSampleModel) ||
+                ((SinglePixelPackedSampleModel) sm).getScanlineStride() != img.getWidth()) {
+            return null;
+        }
+        return ((DataBufferInt) raster.getDataBuffer()).getData();
+    }
+
+    /**
+     * Helper method to get the interleaved sample array of a TYPE_3BYTE_BGR image
+     *
+     * @param img The image
+     *
+     * @return the backing array (row-major, three bytes per pixel in B, G, R order),
+     * or null if the image does not have that layout
+     */
+    static byte[] bytePixels(BufferedImage img) {
+        if (img.getType() != BufferedImage.TYPE_3BYTE_BGR) {
+            return null;
+        }
+        WritableRaster raster = img.getRaster();
+        SampleModel sm = raster.getSampleModel();
+        if (!isUntranslated(img) || !(raster.getDataBuffer() instanceof DataBufferByte) ||
+                !(sm instanceof ComponentSampleModel) ||
+                ((ComponentSampleModel) sm).getPixelStride() != 3 ||
+                ((ComponentSampleModel) sm).getScanlineStride() != 3 * img.getWidth()) {
+            return null;
+        }
+        return ((DataBufferByte) raster.getDataBuffer()).getData();
+    }
+
+    /**
+     * Helper method to get all the pixels of an image as packed (0xAARRGGBB) ints
+     *
+     * @param img The image
+     *
+     * @return the backing array if the image is TYPE_INT_RGB or TYPE_INT_ARGB, or
+     * a copy of the pixels otherwise
+     */
+    static int[] getPixels(BufferedImage img) {
+        int[] pixels = intPixels(img);
+        if (pixels == null) {
+            pixels = img.getRGB(0, 0, img.getWidth(), img.getHeight(), null, 0, img.getWidth());
+        }
+        return pixels;
+    }
+
+    /**
+     * Helper method to store pixels obtained with getPixels() back into an image
+     * (which does nothing if they are the image's backing array)
+     *
+     * @param img    The image
+     * @param pixels The packed (0xAARRGGBB) pixels
+     */
+    static void setPixels(BufferedImage img, int[] pixels) {
+        if (pixels != intPixels(img)) {
+            img.setRGB(0, 0, img.getWidth(), img.getHeight(), pixels, 0, img.getWidth());
+        }
+    }
+
+    /**
+     * Helper method to check that an image's raster starts at the beginning of its
+     * data buffer (i.e., it is not a sub-image of a larger image)
+     *
+     * @param img The image
+     *
+     * @return true if the raster is untranslated
+     */
+    private static boolean isUntranslated(BufferedImage img) {
+        WritableRaster raster = img.getRaster();
+        return raster.getParent() == null &&
+                raster.getSampleModelTranslateX() == 0 &&
+                raster.getSampleModelTranslateY() == 0 &&
+                raster.getDataBuffer().getNumBanks() == 1 &&
+                raster.getDataBuffer().getOffset() == 0 &&
+                raster.getSampleModel().getWidth() == img.getWidth() &&
+                raster.getSampleModel().getHeight() == img.getHeight();
+    }
+}
@@ -14,15 +14,30 @@ public class ReaderThread extends ThreadTime implements Runnable {
     public void run() {
         while (true) {
             WorkUnit unit = readBuffer.get();
+            if (unit == null) {
+                // interrupted by shutdownNow()
+                break;
+            }
+            if (unit.getJob().dropIfCanceled(unit)) {
+                continue;
+            }
             try {
                 long start = System.currentTimeMillis();
                 unit.readImage();
                 long end = System.currentTimeMillis();
                 unit.getJob().readingTime += end - start;
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                // Report the failure, and drop the unit from the pipeline
+                unit.getJob().workUnitFailed(unit.getInputFile(), e);
+                unit.release();
+                unit.getJob().workUnitReleased();
+                continue;
+            }
+            if (!this.processBuffer.put(unit)) {
+                // interrupted by shutdownNow()
+                unit.failInterrupted();
+                break;
             }
-            this.processBuffer.put(unit);
         }
     }
 }
@@ -0,0 +1,238 @@
+package ics432.imgapp;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A ProducerConsumer backed by a lock-free bounded ring buffer (Dmitry Vyukov's
+ * multi-producer multi-consumer queue): producers and consumers claim slots with a
+ * compare-and-set on their own position counter, and each slot has a sequence number
+ * that tells whether it is ready to be written or read. So producers never contend with
+ * consumers, except when the buffer is full or empty.
+ *
+ * Threads that must wait (for a work unit, or for room) first spin for a little while,
+ * and then register themselves and park until a thread of the other side unparks them.
+ */
+class RingProducerConsumer extends ProducerConsumer {
+
+    // The number of failed attempts spent spinning before parking (spinning is useless on a single CPU)
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;
+
+    private final int mask;
+    private final WorkUnit[] units;
+    // The sequence number of each slot: it is equal to the position of the next unit to
+    // put in the slot when the slot is free, and to that position + 1 when the slot is full
+    private final AtomicLongArray sequences;
+    // The position of the next unit to put, and of the next unit to take
+    private final AtomicLong putPosition = new AtomicLong();
+    private final AtomicLong takePosition = new AtomicLong();
+
+    // The parked threads waiting for a work unit, and for room
+    private final Queue<Thread> waitingConsumers = new ConcurrentLinkedQueue<>();
+    private final Queue<Thread> waitingProducers = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean shutdown = false;
+
+    /**
+     * Constructor
+     *
+     * @param capacity The maximum number of work units in the buffer (rounded up to a power of 2)
+     */
+    RingProducerConsumer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.units = new WorkUnit[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+    }
+
+    public boolean put(WorkUnit workUnit) {
+        if ((!this.shutdown && offer(workUnit)) || await(() -> offer(workUnit), this.waitingProducers)) {
+            wakeUp(this.waitingConsumers, 1);
+            return true;
+        }
+        return false;
+    }
+
+    public int putAll(List<WorkUnit> workUnits) {
+        if (this.shutdown) {
+            throw new IllegalStateException("Buffer is shut down");
+        }
+        int count = 0;
+        int total = 0;
+        for (WorkUnit workUnit : workUnits) {
+            // Units are put without waking consumers up, unless the buffer is full
+            if (!offer(workUnit)) {
+                wakeUp(this.waitingConsumers, count);
+                count = 0;
+                if (!await(() -> offer(workUnit), this.waitingProducers)) {
+                    return total;
+                }
+            }
+            count++;
+            total++;
+        }
+        wakeUp(this.waitingConsumers, count);
+        return total;
+    }
+
+    public WorkUnit get() {
+        WorkUnit workUnit = poll();
+        if (workUnit == null) {
+            // Slow path (the holder is only allocated when waiting)
+            WorkUnit[] taken = new WorkUnit[1];
+            if (!await(() -> (taken[0] = poll()) != null, this.waitingConsumers)) {
+                return null;
+            }
+            workUnit = taken[0];
+        }
+        wakeUp(this.waitingProducers, 1);
+        return workUnit;
+    }
+
+    public int drainTo(List<WorkUnit> workUnits, int max) {
+        WorkUnit first = get();
+        if (first == null) {
+            return 0;
+        }
+        workUnits.add(first);
+        int count = 1;
+        WorkUnit workUnit;
+        while (count < max && (workUnit = poll()) != null) {
+            workUnits.add(workUnit);
+            count++;
+        }
+        wakeUp(this.waitingProducers, count - 1);
+        return count;
+    }
+
+    public int getSize() {
+        return (int) Math.max(0, this.putPosition.get() - this.takePosition.get());
+    }
+
+    public void shutdown() {
+        this.shutdown = true;
+        wakeUp(this.waitingConsumers, Integer.MAX_VALUE);
+        wakeUp(this.waitingProducers, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Interface for an attempt to put or take a work unit (without waiting)
+     */
+    private interface Attempt {
+        boolean succeeded();
+    }
+
+    /**
+     * Helper method to repeat an attempt until it succeeds, spinning and then parking
+     * in between attempts
+     *
+     * @return false if the thread was interrupted, or the buffer was shut down (in which
+     * case consumers also get false once it is empty)
+     */
+    private boolean await(Attempt attempt, Queue<Thread> waiting) {
+        boolean producer = waiting == this.waitingProducers;
+        for (int spins = 0; ; spins++) {
+            if (producer && this.shutdown) {
+                throw new IllegalStateException("Buffer is shut down");
+            }
+            if (attempt.succeeded()) {
+                return true;
+            }
+            if (!producer && this.shutdown) {
+                // Units may have been put just before the shutdown
+                return attempt.succeeded();
+            }
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            // Register before the last attempt, so that a thread of the other side that
+            // makes the attempt succeed after it failed will unpark this thread
+            Thread thread = Thread.currentThread();
+            waiting.add(thread);
+            if (attempt.succeeded()) {
+                waiting.remove(thread);
+                return true;
+            }
+            if (!this.shutdown) {
+                LockSupport.park(this);
+            }
+            waiting.remove(thread);
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Helper method to unpark up to count waiting threads
+     */
+    private static void wakeUp(Queue<Thread> waiting, int count) {
+        for (int i = 0; i < count; i++) {
+            Thread thread = waiting.poll();
+            if (thread == null) {
+                return;
+            }
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Helper method to put a work unit, if there is room
+     */
+    private boolean offer(WorkUnit workUnit) {
+        long position = this.putPosition.get();
+        while (true) {
+            int slot = (int) (position & this.mask);
+            long difference = this.sequences.get(slot) - position;
+            if (difference == 0) {
+                if (this.putPosition.compareAndSet(position, position + 1)) {
+                    enqueued(workUnit);
+                    this.units[slot] = workUnit;
+                    this.sequences.set(slot, position + 1);
+                    return true;
+                }
+                position = this.putPosition.get();
+            } else if (difference < 0) {
+                // The slot still holds the unit put one lap ago: the buffer is full
+                return false;
+            } else {
+                position = this.putPosition.get();
+            }
+        }
+    }
+
+    /**
+     * Helper method to take a work unit, if there is one
+     */
+    private WorkUnit poll() {
+        long position = this.takePosition.get();
+        while (true) {
+            int slot = (int) (position & this.mask);
+            long difference = this.sequences.get(slot) - (position + 1);
+            if (difference == 0) {
+                if (this.takePosition.compareAndSet(position, position + 1)) {
+                    WorkUnit workUnit = this.units[slot];
+                    this.units[slot] = null;
+                    this.sequences.set(slot, position + this.mask + 1);
+                    dequeued(workUnit);
+                    return workUnit;
+                }
+                position = this.takePosition.get();
+            } else if (difference < 0) {
+                // The slot has not been written yet: the buffer is empty
+                return null;
+            } else {
+                position = this.takePosition.get();
+            }
+        }
+    }
+}
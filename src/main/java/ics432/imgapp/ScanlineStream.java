@@ -0,0 +1,275 @@
+package ics432.imgapp;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import java.awt.Point;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+
+/**
+ * A helper class that filters an image while streaming it from an ImageReader to an
+ * ImageWriter, so that only a band of rows (rather than the full input and output
+ * images) is in memory at any time. It works for filters whose output rows only
+ * depend on the input rows within some distance (the "halo"), and whose window is
+ * clipped at the image border (e.g., pointwise and median filters).
+ *
+ * Readers push decoded rows one at a time, and writers pull rows to encode one at a
+ * time, so the image is decoded in a separate thread. Decoded rows are kept in a ring
+ * of BAND_ROWS + 2 * halo rows. Each time the writer needs a new band of BAND_ROWS
+ * output rows, the band and its halo rows are filtered as a small image, and the
+ * halo rows of the result are dropped.
+ */
+class ScanlineStream {
+
+    // The number of output rows filtered at a time
+    static final int BAND_ROWS = 64;
+
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+    private final int halo;
+    private final BufferedImageOp filter;
+
+    // The decoded rows (as packed RGB pixels), row y being in ring[y % ring.length]
+    private final int[][] ring;
+    // The number of rows decoded so far, and the first row that is still needed
+    private int decodedRows = 0;
+    private int firstNeededRow = 0;
+    private boolean decodingDone = false;
+    private boolean aborted = false;
+    private Throwable decodingError = null;
+
+    // The current band of output rows, and the images it is computed with
+    private int bandStart = 0;
+    private int bandStop = 0;
+    private int[] bandPixels;
+    private int bandOffset;
+    private BufferedImage bandInput;
+    private BufferedImage bandOutput;
+
+    /**
+     * Constructor
+     *
+     * @param reader The reader (with its input set) of a (3-band, RGB) image
+     * @param width  The image width
+     * @param height The image height
+     * @param halo   The number of rows above and below an output row that it depends on
+     * @param filter The filter to apply
+     */
+    ScanlineStream(ImageReader reader, int width, int height, int halo, BufferedImageOp filter) {
+        this.reader = reader;
+        this.width = width;
+        this.height = height;
+        this.halo = halo;
+        this.filter = filter;
+        this.ring = new int[BAND_ROWS + 2 * halo][width];
+    }
+
+    /**
+     * Method to decode, filter and encode the image
+     *
+     * @param writer The writer (with its output set)
+     * @param param  The parameters to give the writer (or null for its defaults)
+     *
+     * @throws IOException if decoding or encoding fails
+     */
+    void run(ImageWriter writer, ImageWriteParam param) throws IOException {
+        Thread decoder = new Thread(this::decode, "ScanlineStream decoder");
+        decoder.setDaemon(true);
+        decoder.start();
+
+        try {
+            writer.write(null, new IIOImage(createImage(new SourceRaster(this.width, this.height)), null, null), param);
+        } catch (RuntimeException e) {
+            throw new IOException("Error while streaming image (" + e.getMessage() + ")", e);
+        } finally {
+            // Unblock the decoder if it is still running
+            synchronized (this) {
+                this.aborted = true;
+                this.notifyAll();
+            }
+            try {
+                decoder.join();
+            } catch (InterruptedException ignore) {
+            }
+        }
+    }
+
+    /**
+     * Helper method to decode the image into a SinkRaster (run by the decoder thread)
+     */
+    private void decode() {
+        try {
+            ImageReadParam param = this.reader.getDefaultReadParam();
+            param.setDestination(createImage(new SinkRaster(this.width, this.height)));
+            this.reader.read(0, param);
+        } catch (Throwable e) {
+            synchronized (this) {
+                this.decodingError = e;
+            }
+        } finally {
+            synchronized (this) {
+                this.decodingDone = true;
+                this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Helper method to compute the next band of output rows
+     */
+    private void computeNextBand() {
+        int start = this.bandStop;
+        int stop = Math.min(this.height, start + BAND_ROWS);
+        int inputStart = Math.max(0, start - this.halo);
+        int inputStop = Math.min(this.height, stop + this.halo);
+
+        // Let the decoder overwrite the rows that are no longer needed, and wait for the band's rows
+        synchronized (this) {
+            this.firstNeededRow = inputStart;
+            this.notifyAll();
+            while (this.decodedRows < inputStop && !this.decodingDone) {
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException("Interrupted while decoding image", e);
+                }
+            }
+            if (this.decodedRows < inputStop) {
+                throw new IllegalStateException("Could not decode row " + this.decodedRows +
+                        (this.decodingError == null ? "" : " (" + this.decodingError + ")"), this.decodingError);
+            }
+        }
+
+        // The band images are reused, except for the last (shorter) band
+        if (this.bandInput == null || this.bandInput.getHeight() != inputStop - inputStart) {
+            this.bandInput = new BufferedImage(this.width, inputStop - inputStart, BufferedImage.TYPE_INT_RGB);
+            this.bandOutput = null;
+        }
+        int[] pixels = RasterAccess.intPixels(this.bandInput);
+        for (int y = inputStart; y < inputStop; y++) {
+            System.arraycopy(this.ring[y % this.ring.length], 0, pixels, (y - inputStart) * this.width, this.width);
+        }
+        this.bandOutput = this.filter.filter(this.bandInput, this.bandOutput);
+
+        this.bandPixels = RasterAccess.getPixels(this.bandOutput);
+        this.bandOffset = (start - inputStart) * this.width;
+        this.bandStart = start;
+        this.bandStop = stop;
+    }
+
+    /**
+     * Helper method to create a 3-byte RGB image on top of a raster
+     */
+    private static BufferedImage createImage(WritableRaster raster) {
+        ColorModel cm = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+                false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+        return new BufferedImage(cm, raster, false, null);
+    }
+
+    /**
+     * Helper method to create the sample model of a 3-byte RGB image
+     */
+    private static SampleModel createSampleModel(int width, int height) {
+        return new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, width, height, 3, 3 * width,
+                new int[]{0, 1, 2});
+    }
+
+    /**
+     * A raster (of the full image size) to decode into, which only stores the rows
+     * set by the reader (one row at a time) into the ring of decoded rows
+     */
+    private class SinkRaster extends WritableRaster {
+        private int[] samples;
+
+        SinkRaster(int imageWidth, int imageHeight) {
+            // The data buffer only holds one row (it is never accessed)
+            super(createSampleModel(imageWidth, imageHeight), new DataBufferByte(3 * imageWidth), new Point(0, 0));
+        }
+
+        @Override
+        public void setRect(int dx, int dy, Raster srcRaster) {
+            if (dx != 0 || srcRaster.getHeight() != 1 || srcRaster.getWidth() != width) {
+                throw new UnsupportedOperationException("Only full rows can be streamed");
+            }
+
+            // Wait for the ring to have room for the row
+            synchronized (ScanlineStream.this) {
+                while (dy >= firstNeededRow + ring.length && !aborted) {
+                    try {
+                        ScanlineStream.this.wait();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException("Interrupted while decoding image", e);
+                    }
+                }
+                if (aborted) {
+                    throw new IllegalStateException("Streaming aborted");
+                }
+            }
+
+            this.samples = srcRaster.getPixels(srcRaster.getMinX(), srcRaster.getMinY(), width, 1, this.samples);
+            int[] row = ring[dy % ring.length];
+            for (int x = 0, i = 0; x < width; x++, i += 3) {
+                row[x] = 0xFF000000 | (this.samples[i] << 16) | (this.samples[i + 1] << 8) | this.samples[i + 2];
+            }
+
+            synchronized (ScanlineStream.this) {
+                decodedRows = dy + 1;
+                ScanlineStream.this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * A raster (of the full image size) to encode from, which computes the rows
+     * requested by the writer (one row at a time) from the current band
+     */
+    private class SourceRaster extends WritableRaster {
+        private final byte[] row = new byte[3 * width];
+
+        SourceRaster(int imageWidth, int imageHeight) {
+            // The data buffer only holds one row (it is never accessed)
+            super(createSampleModel(imageWidth, imageHeight), new DataBufferByte(3 * imageWidth), new Point(0, 0));
+        }
+
+        @Override
+        public Raster createChild(int parentX, int parentY, int w, int h, int childMinX, int childMinY,
+                                  int[] bandList) {
+            if (h != 1) {
+                throw new UnsupportedOperationException("Only single rows can be streamed");
+            }
+            if (parentY < bandStart) {
+                throw new IllegalStateException("Rows must be streamed in order");
+            }
+            while (parentY >= bandStop) {
+                computeNextBand();
+            }
+
+            int offset = bandOffset + (parentY - bandStart) * width;
+            for (int x = 0, i = 0; x < width; x++, i += 3) {
+                int pixel = bandPixels[offset + x];
+                this.row[i] = (byte) (pixel >> 16);
+                this.row[i + 1] = (byte) (pixel >> 8);
+                this.row[i + 2] = (byte) pixel;
+            }
+
+            Raster line = Raster.createInterleavedRaster(new DataBufferByte(this.row, this.row.length),
+                    width, 1, 3 * width, 3, new int[]{0, 1, 2}, null);
+            return line.createChild(parentX, 0, w, 1, childMinX, childMinY, bandList);
+        }
+    }
+}
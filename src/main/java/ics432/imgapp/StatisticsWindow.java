@@ -1,13 +1,18 @@
 package ics432.imgapp;
 
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.TextArea;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
 import javafx.stage.WindowEvent;
+import javafx.util.Duration;
 
 class StatisticsWindow extends Stage {
 
@@ -31,8 +36,8 @@ class StatisticsWindow extends Stage {
         this.setTitle("Jobs Statistics");
         this.setResizable(false);
         this.centerOnScreen();
-        this.setWidth(400);
-        this.setHeight(225);
+        this.setWidth(720);
+        this.setHeight(520);
 
         // Create a "Close" button
         this.closeButton = new Button("Close");
@@ -71,6 +76,41 @@ class StatisticsWindow extends Stage {
         }
         layout.getChildren().add(vBox);
 
+        // Statistics of the caches and latencies (updated periodically, while the window is shown)
+        Text outputCacheKey = new Text("Output Cache");
+        Text outputCacheText = new Text(OutputCache.getSummary());
+        HBox row4 = new HBox(5);
+        row4.setAlignment(Pos.CENTER_LEFT);
+        row4.getChildren().add(outputCacheKey);
+        row4.getChildren().add(outputCacheText);
+        layout.getChildren().add(row4);
+
+        Text decodedCacheKey = new Text("Decoded Image Cache");
+        Text decodedCacheText = new Text(DecodedImageCache.getSummary());
+        HBox row5 = new HBox(5);
+        row5.setAlignment(Pos.CENTER_LEFT);
+        row5.getChildren().add(decodedCacheKey);
+        row5.getChildren().add(decodedCacheText);
+        layout.getChildren().add(row5);
+
+        // Latency percentiles of each stage and buffer of the pipeline (see LatencyMetrics)
+        Text latencyKey = new Text("Latencies");
+        TextArea latencyText = new TextArea(LatencyMetrics.getSummary());
+        latencyText.setEditable(false);
+        latencyText.setStyle("-fx-font-family: monospace");
+        latencyText.setPrefRowCount(12);
+        layout.getChildren().add(latencyKey);
+        layout.getChildren().add(latencyText);
+
+        Timeline cacheTimeline = new Timeline(new KeyFrame(Duration.millis(500), e -> {
+            outputCacheText.setText(OutputCache.getSummary());
+            decodedCacheText.setText(DecodedImageCache.getSummary());
+            latencyText.setText(LatencyMetrics.getSummary());
+        }));
+        cacheTimeline.setCycleCount(Animation.INDEFINITE);
+        cacheTimeline.play();
+        this.addEventHandler(WindowEvent.WINDOW_HIDDEN, (event) -> cacheTimeline.stop());
+
 
 
 
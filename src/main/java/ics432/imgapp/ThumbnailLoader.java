@@ -0,0 +1,277 @@
+package ics432.imgapp;
+
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A helper class that loads the previews shown in a FileListWithViewPort's viewport, in the
+ * background, so that the JavaFX thread never decodes full-resolution images. A preview is
+ * decoded at (about) the viewport's size, using ImageIO's source subsampling, so that large
+ * images are never fully decoded.
+ *
+ * Previews are kept in a small in-memory cache (per viewport), and in a cache directory
+ * shared by all viewports and across runs (the "imgapp.thumbnails.dir" property, by default
+ * ~/.ics432imgapp/thumbnails), whose total size is capped (the "imgapp.thumbnails.maxMB"
+ * property, by default 64). Both evict the least recently used previews first. A preview is
+ * keyed by its image file's path, modification time and size, and by the viewport's size.
+ */
+class ThumbnailLoader {
+
+    // The number of previews kept in memory (per viewport)
+    private static final int MEMORY_ENTRIES = 32;
+
+    // The disk cache of previews, named after their key (i.e., a UUID)
+    private static final DiskLruCache diskCache = new DiskLruCache("thumbnail cache",
+            Paths.get(System.getProperty("imgapp.thumbnails.dir",
+                    Paths.get(System.getProperty("user.home"), ".ics432imgapp", "thumbnails").toString())),
+            ".jpg", "[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}",
+            Long.getLong("imgapp.thumbnails.maxMB", 64) * 1024 * 1024);
+
+    // The previews are decoded one at a time, in the order in which they are requested
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Thumbnail loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int targetWidth;
+    private final int targetHeight;
+
+    // The previews in memory, by key, in least recently used order
+    private final Map<String, Image> memoryEntries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+            return size() > MEMORY_ENTRIES;
+        }
+    };
+    // The loads that are queued or running, by image file
+    private final Map<Path, CompletableFuture<Image>> pending = new HashMap<>();
+
+    /**
+     * Constructor
+     *
+     * @param targetWidth  The width of the box that previews must fit in
+     * @param targetHeight The height of the box that previews must fit in
+     */
+    ThumbnailLoader(double targetWidth, double targetHeight) {
+        this.targetWidth = Math.max(1, (int) Math.ceil(targetWidth));
+        this.targetHeight = Math.max(1, (int) Math.ceil(targetHeight));
+    }
+
+    /**
+     * Method to get the preview of an image file, if it is in memory
+     *
+     * @param file The image file path
+     *
+     * @return the preview, or null if it must be loaded
+     */
+    synchronized Image getIfLoaded(Path file) {
+        try {
+            return this.memoryEntries.get(computeKey(file));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Method to load the preview of an image file in the background (a load that is already
+     * queued or running is reused)
+     *
+     * @param file The image file path
+     *
+     * @return the future preview, whose value is null if the image file cannot be decoded
+     */
+    synchronized CompletableFuture<Image> load(Path file) {
+        CompletableFuture<Image> future = this.pending.get(file);
+        if (future == null) {
+            future = CompletableFuture.supplyAsync(() -> loadPreview(file), executor);
+            this.pending.put(file, future);
+            CompletableFuture<Image> loaded = future;
+            future.whenComplete((image, e) -> {
+                synchronized (this) {
+                    this.pending.remove(file, loaded);
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * Method to cancel the loads of all image files but some (the loads that are queued are
+     * dropped, while the ones that are running complete, but their previews are only cached)
+     *
+     * @param wanted The image files whose loads must go on
+     */
+    synchronized void cancelAllBut(Collection<Path> wanted) {
+        List<CompletableFuture<Image>> stale = new ArrayList<>();
+        for (Map.Entry<Path, CompletableFuture<Image>> entry : this.pending.entrySet()) {
+            if (!wanted.contains(entry.getKey())) {
+                stale.add(entry.getValue());
+            }
+        }
+        // Canceling a load removes it from the pending loads (see load())
+        for (CompletableFuture<Image> future : stale) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Helper method to load a preview from the disk cache, or to decode it (in the loader thread)
+     *
+     * @param file The image file path
+     *
+     * @return the preview, or null if the image file cannot be decoded
+     */
+    private Image loadPreview(Path file) {
+        String key;
+        try {
+            key = computeKey(file);
+        } catch (IOException e) {
+            return null;
+        }
+        synchronized (this) {
+            Image image = this.memoryEntries.get(key);
+            if (image != null) {
+                return image;
+            }
+        }
+
+        Image image = restoreFromDisk(key);
+        if (image == null) {
+            BufferedImage preview = decodePreview(file);
+            if (preview != null) {
+                image = SwingFXUtils.toFXImage(preview, null);
+                storeOnDisk(key, preview);
+            } else {
+                // ImageIO cannot decode the image file, but JavaFX may
+                image = new Image(file.toUri().toString(), this.targetWidth, this.targetHeight, true, true);
+                if (image.isError()) {
+                    return null;
+                }
+            }
+        }
+
+        synchronized (this) {
+            this.memoryEntries.put(key, image);
+        }
+        return image;
+    }
+
+    /**
+     * Helper method to compute the key of the preview of an image file
+     */
+    private String computeKey(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        String id = file.toAbsolutePath() + "|" + attributes.lastModifiedTime().toMillis() + "|" +
+                attributes.size() + "|" + this.targetWidth + "x" + this.targetHeight;
+        return UUID.nameUUIDFromBytes(id.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Helper method to decode an image file at (about) the target size, with ImageIO's
+     * source subsampling (so that only the pixels that are needed are decoded)
+     *
+     * @param file The image file path
+     *
+     * @return the preview, or null if ImageIO cannot decode the image file
+     */
+    private BufferedImage decodePreview(Path file) {
+        BufferedImage decoded;
+        try (ImageInputStream inputStream = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(inputStream, true, true);
+                int subsampling = Math.max(1, Math.min(reader.getWidth(0) / this.targetWidth,
+                        reader.getHeight(0) / this.targetHeight));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                decoded = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+
+        // Scale the (subsampled) image down to fit in the target size, over a white background
+        double scale = Math.min(1.0, Math.min((double) this.targetWidth / decoded.getWidth(),
+                (double) this.targetHeight / decoded.getHeight()));
+        int width = Math.max(1, (int) Math.round(decoded.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(decoded.getHeight() * scale));
+        BufferedImage preview = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = preview.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(decoded, 0, 0, width, height, Color.WHITE, null);
+        graphics.dispose();
+        return preview;
+    }
+
+    /**
+     * Helper method to load a preview from the disk cache
+     *
+     * @param key The preview's key
+     *
+     * @return the preview, or null on a miss
+     */
+    private static Image restoreFromDisk(String key) {
+        Path cached = diskCache.get(key);
+        if (cached == null) {
+            return null;
+        }
+
+        Image image = new Image(cached.toUri().toString());
+        if (image.isError()) {
+            diskCache.remove(key);
+            return null;
+        }
+        diskCache.touch(key);
+        return image;
+    }
+
+    /**
+     * Helper method to add a preview to the disk cache
+     *
+     * @param key     The preview's key
+     * @param preview The preview
+     */
+    private static void storeOnDisk(String key, BufferedImage preview) {
+        if (diskCache.getMaxBytes() <= 0) {
+            return;
+        }
+        try {
+            diskCache.put(key, tmp -> ImageIO.write(preview, "jpg", tmp.toFile()));
+        } catch (IOException e) {
+            System.err.println("Cannot add a preview to the thumbnail cache (" + e.getMessage() + ")");
+        }
+    }
+}
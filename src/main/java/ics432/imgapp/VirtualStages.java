@@ -0,0 +1,134 @@
+package ics432.imgapp;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+
+/**
+ * A class that runs the reader and writer stages on virtual threads: each work unit
+ * taken from the read (or write) buffer is read (or written) by its own virtual
+ * thread, so that thousands of blocking reads and writes can be in flight without
+ * sizing thread pools. The external process of WorkUnitExternal units is also waited
+ * for on the unit's virtual thread. The CPU-bound filter work stays on the (bounded)
+ * processor threads of the ProcessorPool, and the number of units in flight is
+ * bounded by the memory budget (see MemoryBudget).
+ *
+ * Virtual threads need JDK 21 or later: the thread factory (VirtualThreadFactory) is
+ * only compiled by the "virtual" Maven profile, which also turns this mode on.
+ */
+class VirtualStages {
+
+    private final ThreadFactory factory;
+    private final ProducerConsumer readBuffer;
+    private final ProducerConsumer processBuffer;
+    private final ProducerConsumer writeBuffer;
+    private final WriterThread writer;
+
+    /**
+     * Method to check whether virtual threads are available (and should be used)
+     *
+     * @return true if the "imgapp.virtualThreads" system property is true and virtual threads are available
+     */
+    static boolean isEnabled() {
+        return Boolean.getBoolean("imgapp.virtualThreads") && Holder.FACTORY != null;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param readBuffer    The buffer to take work units to read from
+     * @param processBuffer The buffer to put read work units into
+     * @param writeBuffer   The buffer to take work units to write from
+     */
+    VirtualStages(ProducerConsumer readBuffer, ProducerConsumer processBuffer, ProducerConsumer writeBuffer) {
+        this.factory = Holder.FACTORY;
+        this.readBuffer = readBuffer;
+        this.processBuffer = processBuffer;
+        this.writeBuffer = writeBuffer;
+        this.writer = new WriterThread(writeBuffer);
+    }
+
+    /**
+     * Method to start the (daemon) threads that hand work units to virtual threads
+     */
+    void start() {
+        startDispatcher("VirtualStages reader", this.readBuffer, this::read);
+        startDispatcher("VirtualStages writer", this.writeBuffer, this.writer::write);
+    }
+
+    /**
+     * Helper method to start a thread that starts a virtual thread for each work unit of a buffer
+     */
+    private void startDispatcher(String name, ProducerConsumer buffer, Consumer<WorkUnit> task) {
+        Thread dispatcher = new Thread(() -> {
+            while (true) {
+                WorkUnit unit = buffer.get();
+                if (unit == null) {
+                    // interrupted
+                    break;
+                }
+                this.factory.newThread(() -> task.accept(unit)).start();
+            }
+        }, name);
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Helper method to read a work unit (run by its virtual thread)
+     */
+    private void read(WorkUnit unit) {
+        if (unit.getJob().dropIfCanceled(unit)) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            unit.readImage();
+            long end = System.currentTimeMillis();
+            unit.getJob().readingTime += end - start;
+        } catch (IOException e) {
+            // Report the failure, and drop the unit from the pipeline
+            unit.getJob().workUnitFailed(unit.getInputFile(), e);
+            unit.release();
+            unit.getJob().workUnitReleased();
+            return;
+        }
+
+        if (unit instanceof WorkUnitExternal) {
+            // The external process is waited for here, rather than by a processor thread
+            long start = System.currentTimeMillis();
+            try {
+                unit.processImage();
+            } catch (RuntimeException | Error e) {
+                ProcessorThread.processingFailed(unit, e);
+                return;
+            }
+            long end = System.currentTimeMillis();
+            unit.getJob().processingTime += end - start;
+            if (!this.writeBuffer.put(unit)) {
+                unit.failInterrupted();
+            }
+        } else if (!this.processBuffer.put(unit)) {
+            unit.failInterrupted();
+        }
+    }
+
+    /**
+     * Helper class to load the virtual thread factory once
+     */
+    private static class Holder {
+        private static final ThreadFactory FACTORY = load();
+
+        private static ThreadFactory load() {
+            try {
+                return (ThreadFactory) Class.forName("ics432.imgapp.VirtualThreadFactory")
+                        .getDeclaredConstructor().newInstance();
+            } catch (Exception | LinkageError e) {
+                if (Boolean.getBoolean("imgapp.virtualThreads")) {
+                    System.err.println("Virtual threads not available, using platform threads (" + e + ")");
+                }
+                return null;
+            }
+        }
+    }
+}
@@ -7,19 +7,27 @@ import javafx.scene.image.Image;
 import javafx.embed.swing.SwingFXUtils;
 
 import javax.imageio.ImageIO;
-import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.BufferedImageOp;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-
-import static javax.imageio.ImageIO.createImageOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class WorkUnit {
+
+    // The names of the available filters (which can be chained, see FilterChain)
+    static final List<String> FILTER_NAMES = List.of("Invert", "Solarize", "Oil4", "Median", "DPMedian",
+            "Median5", "Median9", "Median15", "DPEdge", "DPFunk1", "DPFunk2");
+    // The filters whose external (C) versions write their output images at quality 100
+    static final List<String> EXTERNAL_FILTER_NAMES = List.of("DPEdge", "DPFunk1", "DPFunk2");
+
     protected final Path targetDir;
     protected String filterName;
     protected Path inputFile;
@@ -29,9 +37,19 @@ public class WorkUnit {
     protected long fileBytes;
     protected Job job;
 
-    private Image image;
+    private BufferedImage input;
     private BufferedImage img;
     private boolean isPoison;
+    private CompletableFuture<byte[]> prefetchedBytes;
+    private long footprint;
+    // The unit's key in the OutputCache (or null if the cache is disabled), and whether it was a hit
+    private String cacheKey;
+    protected boolean cached = false;
+    // The time (System.nanoTime()) at which the unit was put in its current buffer (see ProducerConsumer)
+    private long enqueueTime;
+
+    // Whether images are decoded with JavaFX (which needs the toolkit) or with ImageIO (see BatchMain)
+    private static volatile boolean javaFXDecoding = true;
 
     public WorkUnit(Path inputFile, Path targetDir, String filterName, AppStats appStats, Job job) {
         this.inputFile = inputFile;
@@ -54,6 +72,108 @@ public class WorkUnit {
         this.isPoison = true;
     }
 
+    /**
+     * Method to choose how input images are decoded: with JavaFX, as when the application
+     * was first written, or with ImageIO, so that no JavaFX toolkit is needed
+     *
+     * @param javaFX Whether to decode with JavaFX
+     */
+    static void setJavaFXDecoding(boolean javaFX) {
+        javaFXDecoding = javaFX;
+    }
+
+    /**
+     * A helper method to estimate the memory needed to process this unit (see MemoryBudget),
+     * from the size of its input file only, since its image dimensions are not known yet
+     */
+    long estimateFootprint() {
+        return MemoryBudget.footprintOf(this.fileBytes, MemoryBudget.estimatePixels(this.fileBytes), this.filterName);
+    }
+
+    /**
+     * A helper method to admit this unit in the pipeline if it fits in the memory budget (without waiting)
+     *
+     * @return true if the unit was admitted
+     */
+    boolean tryAdmit() {
+        long footprint = estimateFootprint();
+        if (!MemoryBudget.tryAcquire(footprint)) {
+            return false;
+        }
+        this.footprint = footprint;
+        return true;
+    }
+
+    /**
+     * A helper method to replace the estimated footprint of an admitted unit with the memory
+     * it actually needs, once its image dimensions are known (by the reader)
+     *
+     * @param footprint The footprint, in bytes
+     */
+    void refineFootprint(long footprint) {
+        if (this.footprint > 0) {
+            MemoryBudget.resize(this.footprint, footprint);
+            this.footprint = footprint;
+        }
+    }
+
+    /**
+     * A helper method to give back this unit's part of the memory budget, once it has left the pipeline
+     */
+    void release() {
+        MemoryBudget.release(this.footprint);
+        this.footprint = 0;
+        // The input file may have been prefetched but never read (see FilePrefetcher)
+        if (this.prefetchedBytes != null) {
+            FilePrefetcher.discard(this.prefetchedBytes);
+            this.prefetchedBytes = null;
+        }
+    }
+
+    /**
+     * A helper method to report that this unit failed, and to drop it from the pipeline
+     * (it then counts as done for its job)
+     *
+     * @param error The exception that was raised
+     */
+    void fail(Exception error) {
+        this.job.workUnitFailed(this.inputFile, error);
+        release();
+        this.job.workUnitReleased();
+    }
+
+    /**
+     * A helper method to report that this unit could not be passed on to the next stage, since
+     * the stage's thread was interrupted (e.g., by shutdownNow()), and to drop it from the pipeline
+     */
+    void failInterrupted() {
+        fail(new IOException("Interrupted while passing " + this.inputFile.toAbsolutePath() + " to the next stage"));
+    }
+
+    /**
+     * A helper method to start reading the input file in memory (see FilePrefetcher),
+     * so that readImage() only has to decode it
+     */
+    void prefetch() {
+        this.prefetchedBytes = FilePrefetcher.prefetch(this.inputFile, this::needsInputBytes);
+    }
+
+    /**
+     * A helper method to check whether the input file must be read: it needn't be if it is
+     * already decoded (unless the OutputCache needs to hash it)
+     */
+    private boolean needsInputBytes() {
+        if (OutputCache.isEnabled() || !DecodedImageCache.isEnabled()) {
+            return true;
+        }
+        try {
+            return !DecodedImageCache.contains(DecodedImageCache.computeKey(this.inputFile));
+        } catch (IOException e) {
+            // readImage() will fail
+            return false;
+        }
+    }
+
     /**
      * A helper method read images
     */
@@ -63,59 +183,237 @@ public class WorkUnit {
         System.err.println("Applying " + this.filterName + " to " + inputFile.toAbsolutePath() + " ...");
 
         try {
-            this.image = new Image(inputFile.toUri().toURL().toString());
-
-            if (image.isError()) {
-                throw new IOException("Error while reading from " + inputFile.toAbsolutePath() +
-                        " (" + image.getException().toString() + ")");
+            byte[] bytes = null;
+            if (this.prefetchedBytes != null) {
+                long start = System.nanoTime();
+                // The bytes are taken once, even if the read failed (so release() doesn't discard them)
+                CompletableFuture<byte[]> prefetched = this.prefetchedBytes;
+                this.prefetchedBytes = null;
+                bytes = FilePrefetcher.take(prefetched);
+                LatencyMetrics.recordStage(this.filterName, LatencyMetrics.Stage.READ, System.nanoTime() - start);
             }
+            if (restoreFromCache(bytes)) {
+                return;
+            }
+            this.input = decode(bytes);
+            refineFootprint(MemoryBudget.footprintOf(this.fileBytes,
+                    (long) this.input.getWidth() * this.input.getHeight(), this.filterName));
         } catch (IOException e) {
             throw new IOException("Error while reading from " + inputFile.toAbsolutePath());
         }
     }
 
+    /**
+     * A helper method to look the output image up in the OutputCache, and to put it at the
+     * output path on a hit (in which case the unit doesn't need to be processed or written)
+     *
+     * @param bytes The input file (or null to read it)
+     * @return true on a hit
+     */
+    boolean restoreFromCache(byte[] bytes) throws IOException {
+        if (!OutputCache.isEnabled() || this.cacheKey != null) {
+            // The cache is disabled, or was already looked up (e.g., by a WorkUnitStreaming)
+            return this.cached;
+        }
+        this.cacheKey = OutputCache.computeKey(bytes, this.inputFile, getCacheVariant());
+        this.cached = OutputCache.restore(this.cacheKey, Paths.get(getOutputPath()));
+        return this.cached;
+    }
+
+    /**
+     * A helper method to add the output image to the OutputCache, once it has been written
+     */
+    void storeInCache() {
+        if (this.cacheKey != null) {
+            OutputCache.store(this.cacheKey, Paths.get(getOutputPath()));
+        }
+    }
+
+    /**
+     * A helper method to describe everything, besides the input file, that the output image
+     * depends on (so that the OutputCache doesn't mix up images produced in different ways):
+     * the kind of work unit, the filter, the JPEG quality, the SIMD kernels, the in-process
+     * ports of the external filters, and the decoder (JavaFX and ImageIO may decode the
+     * same file into slightly different pixels)
+     */
+    String getCacheVariant() {
+        return getClass().getSimpleName() + "|" + this.filterName + "|" + getOutputQuality() + "|" +
+                (this.job != null && this.job.isSimd()) + "|" + (this.job != null && this.job.isInProcess()) + "|" +
+                (javaFXDecoding ? "javafx" : "imageio");
+    }
+
+    /**
+     * A helper method to get the JPEG quality of the output image: the in-process ports of the
+     * external filters write at quality 100, as their C versions do, so that both produce the same
+     * images; other filters write at the quality set by the slider
+     */
+    float getOutputQuality() {
+        return EXTERNAL_FILTER_NAMES.contains(this.filterName) ? 1.0f : JpegEncoder.getQuality();
+    }
+
+    /**
+     * A helper method to report a unit whose output image was restored from the OutputCache
+     * (it is counted as a successful job, but not in the filter's throughput)
+     *
+     * @return the output file path
+     */
+    Path writeCachedImage() {
+        this.appStats.updateSuccessJobs();
+        this.endReadTime = System.currentTimeMillis();
+        return Paths.get(getOutputPath());
+    }
+
+    /**
+     * Helper method to decode the input image, unless it is in the DecodedImageCache
+     * (which it is then added to)
+     *
+     * @param bytes The prefetched input file (or null to read it)
+     */
+    private BufferedImage decode(byte[] bytes) throws IOException {
+        if (!DecodedImageCache.isEnabled()) {
+            return readAndDecode(bytes);
+        }
+        String key = DecodedImageCache.computeKey(this.inputFile);
+        BufferedImage image = DecodedImageCache.get(key);
+        if (image == null) {
+            image = readAndDecode(bytes);
+            DecodedImageCache.put(key, image);
+        }
+        return image;
+    }
+
+    /**
+     * Helper method to read the input file (unless it was prefetched) and to decode it,
+     * recording the latency of both stages (see LatencyMetrics)
+     *
+     * @param bytes The prefetched input file (or null to read it)
+     */
+    private BufferedImage readAndDecode(byte[] bytes) throws IOException {
+        long start = System.nanoTime();
+        if (bytes == null) {
+            bytes = Files.readAllBytes(this.inputFile);
+            long end = System.nanoTime();
+            LatencyMetrics.recordStage(this.filterName, LatencyMetrics.Stage.READ, end - start);
+            start = end;
+        }
+        BufferedImage image = javaFXDecoding ? decodeWithJavaFX(bytes) : decodeWithImageIO(bytes);
+        LatencyMetrics.recordStage(this.filterName, LatencyMetrics.Stage.DECODE, System.nanoTime() - start);
+        return image;
+    }
+
+    /**
+     * Helper method to decode the input image with JavaFX
+     *
+     * @param bytes The prefetched input file (or null to read it)
+     */
+    private BufferedImage decodeWithJavaFX(byte[] bytes) throws IOException {
+        Image image;
+        if (bytes != null) {
+            image = new Image(new ByteArrayInputStream(bytes));
+        } else {
+            image = new Image(inputFile.toUri().toURL().toString());
+        }
+
+        if (image.isError()) {
+            throw new IOException("Error while reading from " + inputFile.toAbsolutePath() +
+                    " (" + image.getException().toString() + ")");
+        }
+        return SwingFXUtils.fromFXImage(image, null);
+    }
+
+    /**
+     * Helper method to decode the input image with ImageIO, into the same type of
+     * image as JavaFX decoding (so that filters behave the same)
+     *
+     * @param bytes The prefetched input file (or null to read it)
+     */
+    private BufferedImage decodeWithImageIO(byte[] bytes) throws IOException {
+        BufferedImage decoded = bytes != null ? ImageIO.read(new ByteArrayInputStream(bytes))
+                : ImageIO.read(inputFile.toFile());
+        if (decoded == null) {
+            throw new IOException("Error while reading from " + inputFile.toAbsolutePath() + " (unknown format)");
+        }
+
+        int type = decoded.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB_PRE : BufferedImage.TYPE_INT_RGB;
+        if (decoded.getType() == type) {
+            return decoded;
+        }
+        BufferedImage converted = new BufferedImage(decoded.getWidth(), decoded.getHeight(), type);
+        Graphics2D graphics = converted.createGraphics();
+        graphics.drawImage(decoded, 0, 0, null);
+        graphics.dispose();
+        return converted;
+    }
+
     /**
      * A helper method process images
     */
     void processImage() {
+        if (this.cached) {
+            this.appStats.updateExecuteJobs();
+            return;
+        }
+        long start = System.nanoTime();
         BufferedImageOp filter = createFilter(filterName);
-        this.img = filter.filter(SwingFXUtils.fromFXImage(image, null), null);
+        this.img = filter.filter(this.input, null);
+        LatencyMetrics.recordStage(this.filterName, LatencyMetrics.Stage.PROCESS, System.nanoTime() - start);
         this.appStats.updateExecuteJobs();
     }
 
     /**
-     * A helper method write images
+     * A helper method write images (with a pooled JpegEncoder)
     */
     public Path writeImage() throws IOException {
-        String outputPath =
-                this.targetDir + System.getProperty("file.separator") + this.filterName + "_" + inputFile.getFileName();
-        
-        OutputStream os;
-        ImageOutputStream outputStream;
+        if (this.cached) {
+            return writeCachedImage();
+        }
+        String outputPath = getOutputPath();
+
         try {
-            os = new FileOutputStream(outputPath);
-            outputStream = createImageOutputStream(os);
-            ImageIO.write(this.img, "jpg", outputStream);
+            JpegEncoder.write(this.img, Paths.get(outputPath), this.filterName, getOutputQuality());
             this.appStats.updateSuccessJobs();
             this.endReadTime = System.currentTimeMillis();
         } catch (IOException | NullPointerException e) {
             throw new IOException("Error while writing to " + outputPath);
         }
-        outputStream.close();
-        os.close();
-        this.appStats.getMap().get(this.filterName).updateAverageTime(this.fileBytes, getReadTime());
+        storeInCache();
+        this.appStats.getFilterStat(this.filterName).updateAverageTime(this.fileBytes, getReadTime());
         return Paths.get(outputPath);
     }
 
+    /**
+     * A helper method to compute the output file's path
+     */
+    String getOutputPath() {
+        return this.targetDir + System.getProperty("file.separator") + FilterChain.toFilePrefix(this.filterName) + "_" +
+                inputFile.getFileName();
+    }
+
     /*
      * Clean up memory for garbage collector
      */
     public void cleanUpWorkUnit() {
-        this.image = null;
+        this.input = null;
         this.img = null;
         this.job = null;
     }
 
+    /**
+     * Method to set the time at which the unit was put in a buffer (see ProducerConsumer)
+     *
+     * @param enqueueTime The time, as given by System.nanoTime()
+     */
+    void setEnqueueTime(long enqueueTime) {
+        this.enqueueTime = enqueueTime;
+    }
+
+    /**
+     * Get the time at which the unit was put in its current buffer
+     */
+    long getEnqueueTime() {
+        return this.enqueueTime;
+    }
+
     /**
      * A getter method that returns input file
     */
@@ -133,22 +431,55 @@ public class WorkUnit {
     /**
      * A helper method to create a Filter object
      *
-     * @param filterName the filter's name
+     * @param filterName the filter's name, or a chain of filter names (e.g., "Median|Solarize|Invert")
      */
-    private BufferedImageOp createFilter(String filterName) {
+    BufferedImageOp createFilter(String filterName) {
+        PixelKernels kernels = this.job.isSimd() ? PixelKernels.vectorized() : null;
+        if (filterName.contains(FilterChain.SEPARATOR)) {
+            // Adjacent pointwise filters are fused into one filter
+            List<BufferedImageOp> stages = new ArrayList<>();
+            List<String> pointwise = new ArrayList<>();
+            for (String name : FilterChain.split(filterName)) {
+                if (PointwiseFilter.isPointwise(name)) {
+                    pointwise.add(name);
+                    continue;
+                }
+                if (!pointwise.isEmpty()) {
+                    stages.add(new PointwiseFilter(pointwise, kernels));
+                    pointwise.clear();
+                }
+                stages.add(createFilter(name));
+            }
+            if (!pointwise.isEmpty()) {
+                stages.add(new PointwiseFilter(pointwise, kernels));
+            }
+            return new FilterChain(stages);
+        }
         switch (filterName) {
             case "Invert":
-                return new InvertFilter();
+                return kernels == null ? new InvertFilter() : new PointwiseFilter("Invert", kernels);
             case "Solarize":
-                return new SolarizeFilter();
+                return kernels == null ? new SolarizeFilter() : new PointwiseFilter("Solarize", kernels);
             case "Oil4":
                 OilFilter oil4Filter = new OilFilter();
                 oil4Filter.setRange(4);
                 return oil4Filter;
             case "Median":
-                return new MedianFilter();
+                return new MedianFilter(kernels);
             case "DPMedian":
-                return new DPMedianFilter(this.job.getGui().getNumDPThreads());
+                return new DPMedianFilter(kernels);
+            case "Median5":
+                return new HistogramMedianFilter(5);
+            case "Median9":
+                return new HistogramMedianFilter(9);
+            case "Median15":
+                return new HistogramMedianFilter(15);
+            case "DPEdge":
+                return new DPEdgeFilter(kernels);
+            case "DPFunk1":
+                return new DPFunkFilter(false);
+            case "DPFunk2":
+                return new DPFunkFilter(true);
             default:
                 throw new RuntimeException("Unknown filter " + filterName);
         }
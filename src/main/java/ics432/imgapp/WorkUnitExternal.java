@@ -1,6 +1,7 @@
 package ics432.imgapp;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -23,13 +24,41 @@ public class WorkUnitExternal extends WorkUnit {
      */
     void readImage() throws IOException {
         this.startReadTime = System.currentTimeMillis();
+        if (restoreFromCache(null)) {
+            return;
+        }
         System.err.println("Applying " + this.filterName + " to " + inputFile.toAbsolutePath() + " ...");
     }
 
+    /**
+     * A helper method to estimate the memory needed to process this unit, which is none
+     * since images are processed outside of the JVM
+     */
+    long estimateFootprint() {
+        return 0;
+    }
+
+    /**
+     * A helper method to prefetch the input file, which is not needed since it is read by the external process
+     */
+    void prefetch() {
+    }
+
     /**
      * A helper method process images
      */
     void processImage() {
+        if (this.cached) {
+            this.appStats.updateExecuteJobs();
+            return;
+        }
+
+        // An existing file is replaced rather than overwritten (see JpegEncoder)
+        try {
+            Files.deleteIfExists(Paths.get(getOutputPath()));
+        } catch (IOException ignore) {
+        }
+
         List<String> args = new ArrayList<>();
         args.add("docker");
         args.add("run");
@@ -56,10 +85,12 @@ public class WorkUnitExternal extends WorkUnit {
         args.add(executableName);
         args.add("/tmp/input/" + inputFile.getFileName().toString());
         args.add("/tmp/output/" + this.filterName + "_" + inputFile.getFileName());
-        args.add(Integer.toString(this.job.getGui().getNumDPThreads()));
+        args.add(Integer.toString(DPThreadPool.getNumThreads()));
 
         System.err.print(args);
 
+        // The external process reads, decodes, processes, encodes and writes the image: it is all recorded as processing
+        long start = System.nanoTime();
         ProcessBuilder pb = new ProcessBuilder(args);
         try {
             Process p = pb.inheritIO().start(); // The inheritIO() is important!
@@ -76,6 +107,7 @@ public class WorkUnitExternal extends WorkUnit {
             e.printStackTrace();
             System.exit(0);
         }
+        LatencyMetrics.recordStage(this.filterName, LatencyMetrics.Stage.PROCESS, System.nanoTime() - start);
 
         this.appStats.updateExecuteJobs();
     }
@@ -84,11 +116,15 @@ public class WorkUnitExternal extends WorkUnit {
      * A helper method write images
      */
     public Path writeImage() throws IOException {
+        if (this.cached) {
+            return writeCachedImage();
+        }
         String outputPath = this.targetDir + System.getProperty("file.separator") + this.filterName + "_"
                 + inputFile.getFileName();
 
         this.endReadTime = System.currentTimeMillis();
-        this.appStats.getMap().get(this.filterName).updateAverageTime(this.fileBytes, getReadTime());
+        this.appStats.getFilterStat(this.filterName).updateAverageTime(this.fileBytes, getReadTime());
+        storeInCache();
 
         return Paths.get(outputPath);
     }
@@ -0,0 +1,222 @@
+package ics432.imgapp;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+
+/**
+ * A WorkUnit that streams its image from the input file to the output file (see
+ * ScanlineStream), so that the full image is never in memory. This is used for
+ * huge images, with filters (or chains of filters) that only look at nearby rows.
+ * Images that cannot be streamed (e.g., progressive or grayscale JPEGs) are
+ * processed as by a regular WorkUnit.
+ */
+public class WorkUnitStreaming extends WorkUnit {
+
+    // The name of the native image metadata format of JPEG images
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+    private ImageInputStream inputStream;
+    private ImageReader reader;
+    private boolean streaming = false;
+    private IOException error;
+
+    public WorkUnitStreaming(Path inputFile, Path targetDir, String filterName, AppStats appStats, Job job) {
+        super(inputFile, targetDir, filterName, appStats, job);
+    }
+
+    /**
+     * Method to compute the halo of a filter (or chain of filters), i.e., the number of rows
+     * above and below an output row that it depends on
+     *
+     * @param filterName The filter's name (or chain of filter names)
+     *
+     * @return the halo, or -1 if the filter cannot be streamed
+     */
+    public static int getHalo(String filterName) {
+        int halo = 0;
+        for (String name : FilterChain.split(filterName)) {
+            switch (name) {
+                case "Invert":
+                case "Solarize":
+                    break;
+                case "Median":
+                case "DPMedian":
+                case "DPEdge":
+                    halo += 1;
+                    break;
+                case "Median5":
+                    halo += 2;
+                    break;
+                case "Median9":
+                    halo += 4;
+                    break;
+                case "Median15":
+                    halo += 7;
+                    break;
+                default:
+                    return -1;
+            }
+        }
+        return halo;
+    }
+
+    /**
+     * A helper method to estimate the memory needed to stream this unit's image (see MemoryBudget),
+     * from the size of its input file only (assuming an aspect ratio of at most 2:1), since its
+     * image width is not known yet
+     */
+    long estimateFootprint() {
+        long width = (long) Math.ceil(Math.sqrt(2.0 * MemoryBudget.estimatePixels(this.fileBytes)));
+        return MemoryBudget.streamingFootprint(width, getHalo(this.filterName), this.filterName);
+    }
+
+    /**
+     * A helper method to prefetch the input file, which is not needed since it is streamed
+     */
+    void prefetch() {
+    }
+
+    /**
+     * A helper method read images (or, when streaming, only their header)
+     */
+    void readImage() throws IOException {
+        this.startReadTime = System.currentTimeMillis();
+
+        try {
+            if (restoreFromCache(null)) {
+                return;
+            }
+        } catch (IOException e) {
+            throw new IOException("Error while reading from " + inputFile.toAbsolutePath());
+        }
+
+        try {
+            this.inputStream = ImageIO.createImageInputStream(inputFile.toFile());
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(this.inputStream);
+            if (readers.hasNext()) {
+                this.reader = readers.next();
+                this.reader.setInput(this.inputStream, true, true);
+                if (canStream()) {
+                    this.streaming = true;
+                    refineFootprint(MemoryBudget.streamingFootprint(this.reader.getWidth(0), getHalo(this.filterName),
+                            this.filterName));
+                    System.err.println("Streaming " + this.filterName + " to " + inputFile.toAbsolutePath() + " ...");
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // Let the regular WorkUnit report the error
+        }
+
+        closeInput();
+        super.readImage();
+    }
+
+    /**
+     * A helper method process images
+     */
+    void processImage() {
+        if (!this.streaming) {
+            super.processImage();
+            return;
+        }
+
+        // An existing file is replaced rather than overwritten (see JpegEncoder)
+        try {
+            Files.deleteIfExists(Paths.get(getOutputPath()));
+        } catch (IOException e) {
+            this.error = e;
+            closeInput();
+            return;
+        }
+
+        // Rows are read, decoded, processed, encoded and written in one pass: it is all recorded as processing
+        long start = System.nanoTime();
+        try (ImageOutputStream outputStream = ImageIO.createImageOutputStream(Paths.get(getOutputPath()).toFile())) {
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+            try {
+                writer.setOutput(outputStream);
+                new ScanlineStream(this.reader, this.reader.getWidth(0), this.reader.getHeight(0),
+                        getHalo(this.filterName), createFilter(this.filterName))
+                        .run(writer, JpegEncoder.createWriteParam(writer, getOutputQuality()));
+            } finally {
+                writer.dispose();
+            }
+        } catch (IOException e) {
+            this.error = e;
+        } finally {
+            closeInput();
+        }
+        LatencyMetrics.recordStage(this.filterName, LatencyMetrics.Stage.PROCESS, System.nanoTime() - start);
+        this.appStats.updateExecuteJobs();
+    }
+
+    /**
+     * A helper method write images (or, when streaming, only report the output file)
+     */
+    public Path writeImage() throws IOException {
+        if (!this.streaming) {
+            return super.writeImage();
+        }
+        if (this.error != null) {
+            throw new IOException("Error while streaming to " + getOutputPath() + " (" + this.error.getMessage() + ")");
+        }
+
+        this.appStats.updateSuccessJobs();
+        this.endReadTime = System.currentTimeMillis();
+        this.appStats.getFilterStat(this.filterName).updateAverageTime(this.fileBytes, getReadTime());
+        storeInCache();
+        return Paths.get(getOutputPath());
+    }
+
+    /**
+     * Helper method to check whether the image can be streamed: it must be a sequential
+     * (i.e., not progressive) RGB JPEG, so that the reader decodes it row by row, once
+     */
+    private boolean canStream() throws IOException {
+        IIOMetadata metadata = this.reader.getImageMetadata(0);
+        if (metadata == null || !JPEG_METADATA_FORMAT.equals(metadata.getNativeMetadataFormatName())) {
+            return false;
+        }
+        NodeList sofs = ((Element) metadata.getAsTree(JPEG_METADATA_FORMAT)).getElementsByTagName("sof");
+        if (sofs.getLength() != 1 || "2".equals(((Element) sofs.item(0)).getAttribute("process"))) {
+            return false;
+        }
+        Iterator<ImageTypeSpecifier> types = this.reader.getImageTypes(0);
+        if (!types.hasNext()) {
+            return false;
+        }
+        ImageTypeSpecifier type = types.next();
+        return type.getNumBands() == 3 && type.getColorModel().getColorSpace().isCS_sRGB();
+    }
+
+    /**
+     * Helper method to close the input file (if it is open)
+     */
+    private void closeInput() {
+        if (this.reader != null) {
+            this.reader.dispose();
+        }
+        this.reader = null;
+        if (this.inputStream != null) {
+            try {
+                this.inputStream.close();
+            } catch (IOException ignore) {
+            }
+        }
+        this.inputStream = null;
+    }
+}
@@ -13,35 +13,42 @@ public class WriterThread extends ThreadTime implements Runnable {
     public void run() {
         while (true) {
             WorkUnit unit = writeBuffer.get();
-            Path inputFile = unit.getInputFile();
-            Job job = unit.getJob();
-            JobWindow jw = job.getGui();
-
-            try {
-                long start = System.currentTimeMillis();
-                Path outputFile = unit.writeImage();
-                long end = System.currentTimeMillis();
-                job.writingTime += end - start;
-                double progress = (double) job.getJobsWritten() / jw.getNumJobs();
-
-                job.addToOutcome(job.getOutcome(), inputFile, outputFile, null);
-                
-                // addFiletoDisplay();
-                // updateProgressBar();
-
-                jw.addToDisplay(job);
-                jw.updateJobProgressBar(progress);
-                if (progress == 1.0) {
-                    synchronized(job) {
-                        job.notify();
-                    }
-                }
-
-                unit.cleanUpWorkUnit();
-            } catch (IOException e) {
-                job.addToOutcome(job.getOutcome(), inputFile, null, e);
-                throw new RuntimeException(e);
+            if (unit == null) {
+                // interrupted by shutdownNow()
+                break;
             }
+            write(unit);
+        }
+    }
+
+    /**
+     * Method to write a work unit, and to report it to its job
+     *
+     * @param unit The work unit
+     */
+    void write(WorkUnit unit) {
+        Path inputFile = unit.getInputFile();
+        Job job = unit.getJob();
+        if (job.dropIfCanceled(unit)) {
+            return;
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            Path outputFile = unit.writeImage();
+            long end = System.currentTimeMillis();
+            job.writingTime += end - start;
+
+            job.workUnitWritten(inputFile, outputFile);
+
+            unit.cleanUpWorkUnit();
+        } catch (IOException e) {
+            // Report the failure (the job counts the unit as done)
+            job.workUnitFailed(inputFile, e);
+        } finally {
+            // The unit has left the pipeline
+            unit.release();
+            job.workUnitReleased();
         }
     }
 